@@ -31,6 +31,7 @@ import com.beust.jcommander.ParameterException;
 import org.iota.jota.pow.SpongeFactory;
 import org.iota.compass.conf.CoordinatorConfiguration;
 import org.iota.compass.conf.CoordinatorState;
+import org.iota.compass.exceptions.PoWTimeoutException;
 import org.iota.compass.exceptions.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +43,7 @@ import java.rmi.Remote;
 import java.security.Security;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.iota.jota.IotaAPI;
@@ -71,7 +73,9 @@ public class Coordinator {
     URL node = new URL(config.host);
 
     this.db = new MilestoneDatabase(config.powMode,
-        config.powHost,
+        config.powCalibrate
+            ? PoWCalibrator.calibratedProvider(config, config.statePath + ".powcalibration")
+            : PoWProviderHelper.powProviderFromConfig(config),
         signatureSource,
         config.layersPath);
     this.api = new IotaAPI.Builder()
@@ -133,8 +137,12 @@ public class Coordinator {
         .build()
         .parse(args);
 
-    if (config.powHost != null && config.powMode != SpongeFactory.Mode.CURLP81) {
-      throw new ParameterException("Remote PoW only supports CURLP81.");
+    if (config.powServer != null && !config.powHost.isEmpty()) {
+      throw new ParameterException("-powServer and -powHost are mutually exclusive.");
+    }
+
+    if (!config.powHost.isEmpty() && config.powMode != SpongeFactory.Mode.CURLP81) {
+      throw new ParameterException("-powHost only supports CURLP81, use -powServer for KERL.");
     }
 
     // We want an empty state if bootstrapping
@@ -342,7 +350,18 @@ public class Coordinator {
       // If all the above checks pass we are ready to issue a new milestone
       state.latestMilestoneIndex++;
 
-      createAndBroadcastMilestone(trunk, branch);
+      try {
+        createAndBroadcastMilestone(trunk, branch);
+      } catch (PoWTimeoutException e) {
+        if (config.bootstrap) {
+          throw e;
+        }
+        // The selected tips are stale by now, so we start over with new ones instead of issuing late. This is only
+        // thrown before the milestone is signed, so the index is still unused.
+        log.warn("Milestone #{} missed its tick, retrying with new tips: {}", state.latestMilestoneIndex, e.getMessage());
+        state.latestMilestoneIndex--;
+        continue;
+      }
       state.latestMilestoneTime = System.currentTimeMillis();
 
       // Everything went fine, now we store
@@ -373,7 +392,9 @@ public class Coordinator {
     log.info("Issuing milestone: " + state.latestMilestoneIndex);
     log.info("Trunk: " + trunk + " Branch: " + branch);
 
-    List<Transaction> latestMilestoneTransactions = db.createMilestone(trunk, branch, state.latestMilestoneIndex, config.MWM);
+    // Give up on PoW that would not be done before the next milestone is due, as long as nothing is signed yet
+    List<Transaction> latestMilestoneTransactions = db.createMilestone(trunk, branch, state.latestMilestoneIndex,
+        config.MWM, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(milestoneTick));
     state.latestMilestoneTransactions = latestMilestoneTransactions.stream().map(Transaction::toTrytes).collect(Collectors.toList());
     state.latestMilestoneHash = latestMilestoneTransactions.get(0).getHash();
 
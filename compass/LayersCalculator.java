@@ -27,10 +27,10 @@ package org.iota.compass;
 
 import com.beust.jcommander.JCommander;
 import com.google.common.math.IntMath;
-import org.iota.jota.pow.ICurl;
-import org.iota.jota.pow.SpongeFactory;
-import org.iota.jota.utils.Converter;
 import org.iota.compass.conf.LayersCalculatorConfiguration;
+import org.iota.compass.crypto.PackedHashes;
+import org.iota.compass.crypto.Sponge;
+import org.iota.compass.crypto.Sponges;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,12 +44,16 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class LayersCalculator implements Runnable {
   private final static Logger log = LoggerFactory.getLogger(LayersCalculator.class);
 
+  /**
+   * Number of consecutive addresses calculated by one task.
+   */
+  private static final int ADDRESS_CHUNK_SIZE = 1024;
+
   private final LayersCalculatorConfiguration config;
   private final SignatureSource signatureSource;
   private final int count;
@@ -101,17 +105,28 @@ public class LayersCalculator implements Runnable {
   //Package Private For Testing
   List<String> calculateAllAddresses() {
     log.info("Calculating " + count + " addresses.");
-    return IntStream.range(0, count)
-        .mapToObj(signatureSource::getAddress)
-        .parallel()
-        .collect(Collectors.toList());
+    final PackedHashes addresses = new PackedHashes(count);
+    if (signatureSource.parallelizesAddressRanges()) {
+      signatureSource.getAddressTrits(0, count, (address, index) -> addresses.setTrits((int) index, address));
+      return addresses;
+    }
+
+    final int chunks = (count + ADDRESS_CHUNK_SIZE - 1) / ADDRESS_CHUNK_SIZE;
+
+    IntStream.range(0, chunks).parallel().forEach(chunk -> {
+      int from = chunk * ADDRESS_CHUNK_SIZE;
+      signatureSource.getAddressTrits(from, Math.min(ADDRESS_CHUNK_SIZE, count - from),
+          (address, index) -> addresses.setTrits((int) index, address));
+    });
+
+    return addresses;
   }
 
   //Package Private For Testing
   List<List<String>> calculateAllLayers(List<String> addresses) {
     int depth = IntMath.log2(addresses.size(), RoundingMode.FLOOR);
     List<List<String>> layers = new ArrayList<>(depth);
-    List<String> last = addresses;
+    PackedHashes last = addresses instanceof PackedHashes ? (PackedHashes) addresses : PackedHashes.of(addresses);
     layers.add(last);
 
     while (depth-- > 0) {
@@ -136,22 +151,19 @@ public class LayersCalculator implements Runnable {
     writer.close();
   }
 
-  private List<String> calculateNextLayer(List<String> inLayer) {
+  private PackedHashes calculateNextLayer(PackedHashes layer) {
     log.info("Calculating");
-    final List<String> layer = Collections.unmodifiableList(inLayer);
-
-    return IntStream.range(0, layer.size() / 2).mapToObj((int idx) -> {
-      ICurl sp = SpongeFactory.create(signatureSource.getSignatureMode());
+    final PackedHashes nextLayer = new PackedHashes(layer.size() / 2);
 
-      int[] t1 = Converter.trits(layer.get(idx * 2));
-      int[] t2 = Converter.trits(layer.get(idx * 2 + 1));
+    IntStream.range(0, nextLayer.size()).parallel().forEach((int idx) -> {
+      Sponge sp = Sponges.forThread(signatureSource.getSignatureMode());
 
-      sp.absorb(t1, 0, t1.length);
-      sp.absorb(t2, 0, t2.length);
+      layer.absorbInto(idx * 2, sp);
+      layer.absorbInto(idx * 2 + 1, sp);
 
-      sp.squeeze(t1, 0, t1.length);
+      nextLayer.squeezeFrom(idx, sp);
+    });
 
-      return Converter.trytes(t1);
-    }).parallel().collect(Collectors.toList());
+    return nextLayer;
   }
 }
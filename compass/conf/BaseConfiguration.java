@@ -30,6 +30,8 @@ import org.iota.jota.pow.SpongeFactory;
 import org.iota.compass.SignatureSourceType;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 public class BaseConfiguration {
   @Parameter(names = "-layers", description = "Path to folder containing Merkle Tree layers", required = true)
@@ -48,8 +50,33 @@ public class BaseConfiguration {
       converter = SpongeModeConverter.class, validateValueWith = {POWModeValidator.class})
   public SpongeFactory.Mode powMode = SpongeFactory.Mode.CURLP81;
 
-  @Parameter(names = "-powHost", description = "Outsource CURLP81 PoW to an IRI host", required = false, converter = URLConverter.class)
-  public URL powHost = null;
+  @Parameter(names = "-powHost", description = "Outsource CURLP81 PoW to IRI hosts (comma separated or repeated; the fastest healthy host is used)",
+      required = false, converter = URLConverter.class)
+  public List<URL> powHost = new ArrayList<>();
+
+  @Parameter(names = "-powServer", description = "URI of a PoW server to outsource CURLP81 and KERL PoW to")
+  public String powServer = null;
+
+  @Parameter(names = "-powServerPlaintext", description = "Whether to communicate with the PoW server in plaintext")
+  public boolean powServerPlaintext = false;
+
+  @Parameter(names = "-powServerTrustCertCollection", description = "Path to trust cert collection for encrypted connection to the PoW server")
+  public String powServerTrustCertCollection = null;
+
+  @Parameter(names = "-powServerClientCertChain", description = "Path to client certificate chain to use for authenticating to the PoW server")
+  public String powServerClientCertChain = null;
+
+  @Parameter(names = "-powServerClientKey", description = "Path to private key to use for authenticating to the PoW server")
+  public String powServerClientKey = null;
+
+  @Parameter(names = "-powHedgeDelay", description = "Milliseconds to wait for remote PoW before also starting local PoW (negative to disable)")
+  public long powHedgeDelay = -1;
+
+  @Parameter(names = "-powThreads", description = "Number of threads to use for local PoW (0 to derive from the available processors)")
+  public int powThreads = 0;
+
+  @Parameter(names = "-powLanes", description = "Number of nonce candidates hashed together by each KERL PoW thread (1 to hash one at a time)")
+  public int powLanes = 1;
 
   @Parameter(names = "-signatureSource", description = "Signature source type (can be 'inmemory' or 'remote')", converter = SignatureSourceTypeConverter.class)
   public SignatureSourceType signatureSource = SignatureSourceType.INMEMORY;
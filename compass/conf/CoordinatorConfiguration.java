@@ -71,6 +71,10 @@ public class CoordinatorConfiguration extends BaseConfiguration {
   @Parameter(names = "-statePath", description = "Path to compass state file.")
   public String statePath = "compass.state";
 
+  @Parameter(names = "-powCalibrate", description = "Benchmark the available PoW providers at startup and use the fastest. " +
+      "The result is stored next to the state file and reused until the PoW configuration changes.")
+  public boolean powCalibrate = false;
+
   @Parameter(names = "-APIRetries", description = "Number of attempts to retry failing API call.")
   public int APIRetries = 5;
 
@@ -0,0 +1,29 @@
+package org.iota.compass.conf;
+
+import com.beust.jcommander.Parameter;
+
+public class PoWServerConfiguration {
+  @Parameter(names = "-port", description = "Port to listen on.")
+  public Integer port = 50052;
+
+  @Parameter(names = "-plaintext", description = "Whether to communicate with clients in plaintext")
+  public boolean plaintext = false;
+
+  @Parameter(names = "-trustCertCollection", description = "Path to trust cert collection")
+  public String trustCertCollection = null;
+
+  @Parameter(names = "-certChain", description = "Path to certificate chain")
+  public String certChain = null;
+
+  @Parameter(names = "-privateKey", description = "Path to the server's certificate's private key")
+  public String privateKey = null;
+
+  @Parameter(names = "-powThreads", description = "Number of threads to use for PoW (0 to derive from the available processors)")
+  public int powThreads = 0;
+
+  @Parameter(names = "-powLanes", description = "Number of nonce candidates hashed together by each KERL PoW thread (1 to hash one at a time)")
+  public int powLanes = 1;
+
+  @Parameter(names = "-maxQueueDepth", description = "Maximum number of requests waiting for PoW before new ones are rejected")
+  public int maxQueueDepth = 64;
+}
@@ -42,4 +42,16 @@ public class RemoteSignatureSourceConfiguration {
 
   @Parameter(names = "-remoteClientKey", description = "Path to private key to use for authenticating to the remote signature source server")
   public String clientKey = null;
+
+  @Parameter(names = "-remoteDeadline", description = "Deadline in milliseconds of each call to the remote signature source")
+  public long deadline = 3_000;
+
+  @Parameter(names = "-remoteAttempts", description = "How often a call to the remote signature source is attempted before giving up")
+  public int attempts = 3;
+
+  @Parameter(names = "-remoteBackoff", description = "Delay in milliseconds before retrying a failed call to the remote signature source; it doubles with every retry")
+  public long backoff = 250;
+
+  @Parameter(names = "-remoteMaxBackoff", description = "Maximum delay in milliseconds between retries of a call to the remote signature source")
+  public long maxBackoff = 2_000;
 }
@@ -17,4 +17,19 @@ public class SignatureSourceServerConfiguration extends InMemorySignatureSourceC
 
   @Parameter(names = "-privateKey ", description = "Path to the server's certificate's private key")
   public String privateKey = null;
+
+  @Parameter(names = "-signingThreads", description = "Number of threads reserved for GetSignature requests")
+  public int signingThreads = 1;
+
+  @Parameter(names = "-maxQueuedSignatures", description = "Maximum number of GetSignature requests waiting for a signing thread before new ones are rejected")
+  public int maxQueuedSignatures = 16;
+
+  @Parameter(names = "-addressThreads", description = "Number of threads calculating addresses (default: available processors minus signing threads)")
+  public Integer addressThreads = null;
+
+  @Parameter(names = "-maxQueuedAddresses", description = "Maximum number of GetAddress requests waiting for an address thread before new ones are rejected")
+  public int maxQueuedAddresses = 64;
+
+  @Parameter(names = "-maxAddressStreams", description = "Maximum number of concurrent GetAddresses streams before new ones are rejected")
+  public int maxAddressStreams = 2;
 }
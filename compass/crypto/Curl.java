@@ -0,0 +1,145 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.SpongeFactory;
+
+import java.util.Arrays;
+
+/**
+ * A Curl-P27/P81 sponge that produces the same output as Jota's {@code JCurl}.
+ * <p>
+ * The transform reads the state through a precomputed index sequence and the S-box truth table, and writes every
+ * round into a second buffer that is then swapped with the state, so no trits are copied between rounds.
+ * Instances are not thread-safe but may be {@link #reset()} and reused.
+ */
+public class Curl implements Sponge {
+
+  public static final int HASH_LENGTH = 243;
+  public static final int STATE_LENGTH = 3 * HASH_LENGTH;
+
+  private static final int[] TRUTH_TABLE = {1, 0, -1, 2, 1, -1, 0, 2, -1, 1, 0};
+  // state[i] of the next round is the S-box of scratchpad[INDICES[i]] and scratchpad[INDICES[i + 1]]
+  private static final int[] INDICES = new int[STATE_LENGTH + 1];
+
+  static {
+    for (int i = 0; i < STATE_LENGTH; i++) {
+      INDICES[i + 1] = INDICES[i] + (INDICES[i] < 365 ? 364 : -365);
+    }
+  }
+
+  private final SpongeFactory.Mode mode;
+  private final int numberOfRounds;
+  private int[] state = new int[STATE_LENGTH];
+  private int[] scratchpad = new int[STATE_LENGTH];
+
+  public Curl(SpongeFactory.Mode mode) {
+    switch (mode) {
+      case CURLP27:
+        numberOfRounds = 27;
+        break;
+      case CURLP81:
+        numberOfRounds = 81;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported sponge mode: " + mode);
+    }
+    this.mode = mode;
+  }
+
+  @Override
+  public Curl absorb(final int[] trits, int offset, int length) {
+    do {
+      System.arraycopy(trits, offset, state, 0, length < HASH_LENGTH ? length : HASH_LENGTH);
+      transform();
+      offset += HASH_LENGTH;
+    } while ((length -= HASH_LENGTH) > 0);
+    return this;
+  }
+
+  @Override
+  public Curl absorb(final int[] trits) {
+    return absorb(trits, 0, trits.length);
+  }
+
+  @Override
+  public int[] squeeze(final int[] trits, int offset, int length) {
+    do {
+      System.arraycopy(state, 0, trits, offset, length < HASH_LENGTH ? length : HASH_LENGTH);
+      transform();
+      offset += HASH_LENGTH;
+    } while ((length -= HASH_LENGTH) > 0);
+    return state;
+  }
+
+  @Override
+  public int[] squeeze(final int[] trits) {
+    return squeeze(trits, 0, trits.length);
+  }
+
+  public Curl transform() {
+    int[] from = state;
+    int[] to = scratchpad;
+    for (int round = 0; round < numberOfRounds; round++) {
+      for (int i = 0; i < STATE_LENGTH; i++) {
+        to[i] = TRUTH_TABLE[from[INDICES[i]] + (from[INDICES[i + 1]] << 2) + 5];
+      }
+      int[] swap = from;
+      from = to;
+      to = swap;
+    }
+    state = from;
+    scratchpad = to;
+    return this;
+  }
+
+  @Override
+  public Curl reset() {
+    Arrays.fill(state, 0);
+    return this;
+  }
+
+  public int[] getState() {
+    return state;
+  }
+
+  /**
+   * Copies {@code state} into this sponge.
+   */
+  public void setState(int[] state) {
+    if (state.length != STATE_LENGTH) {
+      throw new IllegalArgumentException("Invalid state length: " + state.length);
+    }
+    System.arraycopy(state, 0, this.state, 0, STATE_LENGTH);
+  }
+
+  @Override
+  public Curl clone() {
+    Curl clone = new Curl(mode);
+    clone.setState(state);
+    return clone;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.ICurl;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Verifies the in-tree Curl against Jota's implementation.
+ */
+@RunWith(JUnit4.class)
+public class CurlTest {
+
+  private static final SpongeFactory.Mode[] MODES = {SpongeFactory.Mode.CURLP27, SpongeFactory.Mode.CURLP81};
+
+  private final TestRandom random = new TestRandom();
+
+  private void assertSameAsJota(SpongeFactory.Mode mode, int[] input, int squeezeLength) {
+    int[] expected = new int[squeezeLength];
+    int[] actual = new int[squeezeLength];
+
+    ICurl jota = SpongeFactory.create(mode);
+    jota.absorb(input, 0, input.length);
+    jota.squeeze(expected, 0, expected.length);
+
+    Curl curl = new Curl(mode);
+    curl.absorb(input, 0, input.length);
+    curl.squeeze(actual, 0, actual.length);
+
+    Assert.assertArrayEquals(expected, actual);
+    Assert.assertArrayEquals(jota.getState(), curl.getState());
+  }
+
+  @Test
+  public void matchesJotaOnRandomInput() {
+    for (SpongeFactory.Mode mode : MODES) {
+      for (int i = 0; i < 20; i++) {
+        // includes lengths that are not a multiple of the hash length
+        assertSameAsJota(mode, random.nextTrits(1 + random.nextInt(243 * 4)), 243 * (1 + random.nextInt(3)));
+      }
+      assertSameAsJota(mode, random.nextTrits(8019), 243);
+    }
+  }
+
+  @Test
+  public void resetsAndClones() {
+    for (SpongeFactory.Mode mode : MODES) {
+      int[] input = random.nextTrits(243 * 2);
+      int[] expected = new int[243];
+      int[] actual = new int[243];
+
+      Curl curl = new Curl(mode);
+      curl.absorb(random.nextTrits(243));
+      curl.reset();
+      curl.absorb(input, 0, 243);
+      Curl clone = curl.clone();
+
+      curl.absorb(input, 243, 243);
+      curl.squeeze(expected);
+      clone.absorb(input, 243, 243);
+      clone.squeeze(actual);
+
+      Assert.assertArrayEquals(expected, actual);
+
+      ICurl jota = SpongeFactory.create(mode);
+      jota.absorb(input);
+      Assert.assertArrayEquals(jota.squeeze(new int[243]), new Curl(mode).absorb(input).squeeze(new int[243]));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.IotaPoW;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A Proof-of-Work provider with bounded, cancellable searches that can reject otherwise valid nonces based on the
+ * resulting transaction hash without restarting the search.
+ */
+public interface FilteringPoW extends IotaPoW {
+
+  /**
+   * Upper bound for searches that are not given an explicit deadline.
+   */
+  long DEFAULT_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /**
+   * Searches for a nonce until one is found, {@code deadlineNanos} has passed or the calling thread is interrupted.
+   * Interruption is reported as {@link PoWResult.Outcome#CANCELLED} with the thread's interrupt flag restored.
+   *
+   * @param trytes             the transaction trytes
+   * @param minWeightMagnitude the minimum weight magnitude
+   * @param hashFilter         called with the transaction hash trits of every candidate that meets the MWM.
+   *                           The candidate is only accepted if this returns {@code true}.
+   *                           The array is reused by the provider and must not be retained.
+   * @param deadlineNanos      the {@link System#nanoTime()} at which the search is given up
+   * @return the outcome and telemetry of the search, never {@code null}
+   */
+  PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos);
+
+  /**
+   * Like {@link #performPoW(String, int, Predicate, long)} with a deadline of {@link #DEFAULT_TIMEOUT_NANOS}.
+   *
+   * @return the result of the search or {@code null} if no nonce was found
+   */
+  default PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter) {
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashFilter, System.nanoTime() + DEFAULT_TIMEOUT_NANOS);
+    return result.isFound() ? result : null;
+  }
+}
@@ -25,15 +25,16 @@
 
 package org.iota.compass.crypto;
 
-import org.iota.jota.pow.ICurl;
 import org.iota.jota.pow.JCurl;
 import org.iota.jota.pow.SpongeFactory;
-import org.iota.jota.utils.Converter;
 
 /**
  *
  */
 public class Hasher {
+
+  private static final ThreadLocal<int[]> CHUNK = ThreadLocal.withInitial(() -> new int[JCurl.HASH_LENGTH]);
+
   /**
    * Hashes a provided Tryte string using the given method
    *
@@ -42,16 +43,73 @@ public class Hasher {
    * @return 81 tryte hash
    */
   public static String hashTrytes(SpongeFactory.Mode mode, String trytes) {
-    return Converter.trytes(hashTrytesToTrits(mode, trytes));
+    return TryteCodec.trytes(hashTrytesToTrits(mode, trytes));
   }
 
   public static int[] hashTrytesToTrits(SpongeFactory.Mode mode, String trytes) {
     int[] hash = new int[JCurl.HASH_LENGTH];
+    hashTrytesToTrits(mode, trytes, hash);
+    return hash;
+  }
 
-    ICurl sponge = SpongeFactory.create(mode);
-    sponge.absorb(Converter.trits(trytes));
-    sponge.squeeze(hash);
+  /**
+   * Hashes the provided trytes into a caller-provided buffer, decoding them one hash length at a time
+   *
+   * @param mode   the sponge method to use
+   * @param trytes the trytes to hash
+   * @param hash   receives the 243 trit hash
+   */
+  public static void hashTrytesToTrits(SpongeFactory.Mode mode, CharSequence trytes, int[] hash) {
+    Sponge sponge = Sponges.forThread(mode);
+    absorbTrytes(sponge, trytes, 0, trytes.length());
+    sponge.squeeze(hash, 0, JCurl.HASH_LENGTH);
+  }
 
-    return hash;
+  /**
+   * Absorbs {@code length} trytes starting at {@code offset}, like absorbing their trits at once would, without
+   * decoding all of them up front
+   *
+   * @param sponge the sponge to absorb into
+   * @param trytes the trytes to absorb
+   * @param offset the first tryte to absorb
+   * @param length the number of trytes to absorb
+   */
+  public static void absorbTrytes(Sponge sponge, CharSequence trytes, int offset, int length) {
+    final int[] chunk = CHUNK.get();
+    final int tryteChunk = JCurl.HASH_LENGTH / TryteCodec.TRITS_PER_TRYTE;
+    do {
+      int n = Math.min(length, tryteChunk);
+      TryteCodec.decode(trytes, offset, n, chunk, 0);
+      sponge.absorb(chunk, 0, n * TryteCodec.TRITS_PER_TRYTE);
+      offset += tryteChunk;
+    } while ((length -= tryteChunk) > 0);
+  }
+
+  /**
+   * Hashes the provided trits into a caller-provided buffer using this thread's sponge
+   *
+   * @param mode  the sponge method to use
+   * @param trits the trits to hash
+   * @param hash  receives the 243 trit hash
+   */
+  public static void hashTrits(SpongeFactory.Mode mode, int[] trits, int[] hash) {
+    Sponge sponge = Sponges.forThread(mode);
+    sponge.absorb(trits, 0, trits.length);
+    sponge.squeeze(hash, 0, JCurl.HASH_LENGTH);
+  }
+
+  /**
+   * Hashes a range of packed trits into a caller-provided buffer using this thread's sponge
+   *
+   * @param mode   the sponge method to use
+   * @param trits  the packed trits
+   * @param offset the first trit to hash
+   * @param length the number of trits to hash
+   * @param hash   receives the 243 trit hash
+   */
+  public static void hashTrits(SpongeFactory.Mode mode, TritBuffer trits, int offset, int length, int[] hash) {
+    Sponge sponge = Sponges.forThread(mode);
+    trits.absorbInto(sponge, offset, length);
+    sponge.squeeze(hash, 0, JCurl.HASH_LENGTH);
   }
 }
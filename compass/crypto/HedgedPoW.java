@@ -0,0 +1,168 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.IotaPoW;
+import org.iota.jota.pow.SpongeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Races a remote CURL-P81 PoW provider against a local one.
+ * <p>
+ * Every request is sent to the remote provider first. If it did not answer within the hedge delay, or failed, the
+ * local provider starts searching as well. The first result that meets the MWM and the hash filter is used and the
+ * other search is cancelled. Both sides share the deadline of the request.
+ */
+public class HedgedPoW implements FilteringPoW {
+  private static final Logger log = LoggerFactory.getLogger(HedgedPoW.class);
+
+  private final IotaPoW remote;
+  private final IotaPoW local;
+  private final long hedgeDelayMillis;
+  private final ExecutorService executorService;
+
+  /**
+   * @param remote           the provider that is tried first
+   * @param local            the provider that is started once the hedge delay has passed
+   * @param hedgeDelayMillis how long to wait for {@code remote} before starting {@code local}
+   */
+  public HedgedPoW(IotaPoW remote, IotaPoW local, long hedgeDelayMillis) {
+    this.remote = remote;
+    this.local = local;
+    this.hedgeDelayMillis = hedgeDelayMillis;
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.executorService = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "HedgedPoW-" + threadCount.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  private static boolean isValid(PoWResult result, int minWeightMagnitude, Predicate<int[]> hashFilter) {
+    if (result == null || !result.isFound()) {
+      return false;
+    }
+
+    int[] hash = Hasher.hashTrytesToTrits(SpongeFactory.Mode.CURLP81, result.getTrytes());
+    for (int i = hash.length - minWeightMagnitude; i < hash.length; i++) {
+      if (hash[i] != 0) {
+        return false;
+      }
+    }
+    return hashFilter.test(hash);
+  }
+
+  private static PoWResult performPoW(IotaPoW pow, String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter,
+                                      long deadlineNanos) {
+    if (pow instanceof FilteringPoW) {
+      return ((FilteringPoW) pow).performPoW(trytes, minWeightMagnitude, hashFilter, deadlineNanos);
+    }
+
+    // Foreign providers neither filter nor stop at the deadline, we only validate their result
+    final long start = System.nanoTime();
+    final String result = pow.performPoW(trytes, minWeightMagnitude);
+    return result == null
+        ? PoWResult.notFound(PoWResult.Outcome.FAILED, 0, 0, System.nanoTime() - start)
+        : PoWResult.found(result, 0, 0, System.nanoTime() - start);
+  }
+
+  @Override
+  public String performPoW(String trytes, int minWeightMagnitude) {
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+    return result == null ? null : result.getTrytes();
+  }
+
+  @Override
+  public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+    final long start = System.nanoTime();
+    final CompletionService<PoWResult> completionService = new ExecutorCompletionService<>(executorService);
+
+    final Future<PoWResult> remoteFuture = completionService.submit(
+        () -> performPoW(remote, trytes, minWeightMagnitude, hashFilter, deadlineNanos));
+    Future<PoWResult> localFuture = null;
+    PoWResult.Outcome outcome = PoWResult.Outcome.FAILED;
+
+    try {
+      int pending = 1;
+      while (pending > 0) {
+        final long waitNanos = localFuture == null
+            ? Math.min(TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis), deadlineNanos - System.nanoTime())
+            : deadlineNanos - System.nanoTime();
+        final Future<PoWResult> done = completionService.poll(waitNanos, TimeUnit.NANOSECONDS);
+
+        if (done != null) {
+          pending--;
+          final String side = done == remoteFuture ? "remote" : "local";
+          PoWResult result = null;
+          try {
+            result = done.get();
+          } catch (ExecutionException e) {
+            log.warn("PoW failed on the {} side.", side, e.getCause());
+          }
+
+          if (isValid(result, minWeightMagnitude, hashFilter)) {
+            log.info("PoW won by the {} side after {} ms (hedge delay: {} ms, local started: {}).", side,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), hedgeDelayMillis, localFuture != null);
+            return PoWResult.found(result.getTrytes(), result.getRejectedCandidates(), result.getAttempts(),
+                System.nanoTime() - start);
+          }
+          if (result != null && result.isFound()) {
+            log.warn("PoW on the {} side returned trytes that do not meet MWM {} or the hash filter.", side,
+                minWeightMagnitude);
+          }
+        }
+
+        if (System.nanoTime() - deadlineNanos >= 0) {
+          outcome = PoWResult.Outcome.DEADLINE_EXCEEDED;
+          break;
+        }
+        if (localFuture == null) {
+          // The remote side is late or failed, start searching ourselves
+          localFuture = completionService.submit(
+              () -> performPoW(local, trytes, minWeightMagnitude, hashFilter, deadlineNanos));
+          pending++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      outcome = PoWResult.Outcome.CANCELLED;
+    } finally {
+      remoteFuture.cancel(true);
+      if (localFuture != null) {
+        localFuture.cancel(true);
+      }
+    }
+
+    log.error("failed to calculate PoW with MWM: {} ({})", minWeightMagnitude, outcome);
+    return PoWResult.notFound(outcome, 0, 0, System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.IotaPoW;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Races stub providers against each other to check which result {@link HedgedPoW} takes, when it starts the local
+ * side and that it cancels the side that lost.
+ */
+@RunWith(JUnit4.class)
+public class HedgedPoWTest {
+  private static final int MWM = 9;
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private static String transaction;
+  private static String attached;
+
+  @BeforeClass
+  public static void attach() {
+    char[] trytes = new char[2673];
+    Arrays.fill(trytes, 'A');
+    transaction = new String(trytes);
+    attached = new LocalCURLP81PoW(1).performPoW(transaction, MWM);
+    Assert.assertFalse("The unattached transaction must miss the MWM", meetsMWM(transaction));
+  }
+
+  private static boolean meetsMWM(String trytes) {
+    int[] hash = Hasher.hashTrytesToTrits(SpongeFactory.Mode.CURLP81, trytes);
+    for (int i = hash.length - MWM; i < hash.length; i++) {
+      if (hash[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static PoWResult performPoW(IotaPoW remote, IotaPoW local, long hedgeDelayMillis, long timeoutMillis,
+                                      Predicate<int[]> hashFilter) {
+    return new HedgedPoW(remote, local, hedgeDelayMillis).performPoW(transaction, MWM, hashFilter,
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+  }
+
+  private static PoWResult performPoW(IotaPoW remote, IotaPoW local, long hedgeDelayMillis) {
+    return performPoW(remote, local, hedgeDelayMillis, 10_000, hashTrits -> true);
+  }
+
+  private static void assertCancelled(StubPoW pow) throws InterruptedException {
+    Assert.assertTrue("The losing side should have been cancelled", pow.cancelled.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void startsLocalWhenRemoteFailsWithinHedgeDelay() {
+    StubPoW remote = StubPoW.failing(0);
+    StubPoW local = StubPoW.answering(0, attached);
+
+    long start = System.nanoTime();
+    PoWResult result = performPoW(remote, local, 60_000);
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, result.getOutcome());
+    Assert.assertEquals(attached, result.getTrytes());
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void takesRemoteResultAfterLocalStarted() throws InterruptedException {
+    StubPoW remote = StubPoW.answering(300, attached);
+    StubPoW local = StubPoW.answering(NEVER, null);
+
+    PoWResult result = performPoW(remote, local, 50);
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, result.getOutcome());
+    Assert.assertEquals(attached, result.getTrytes());
+    Assert.assertTrue("The local side should have been started", local.started.await(0, TimeUnit.SECONDS));
+    assertCancelled(local);
+  }
+
+  @Test
+  public void takesLocalResultAndCancelsRemote() throws InterruptedException {
+    StubPoW remote = StubPoW.answering(NEVER, null);
+    StubPoW local = StubPoW.answering(0, attached);
+
+    PoWResult result = performPoW(remote, local, 50);
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, result.getOutcome());
+    Assert.assertEquals(attached, result.getTrytes());
+    assertCancelled(remote);
+  }
+
+  @Test
+  public void skipsInvalidRemoteResult() {
+    // A foreign provider whose result misses the MWM
+    IotaPoW remote = (trytes, minWeightMagnitude) -> trytes;
+    StubPoW local = StubPoW.answering(0, attached);
+
+    PoWResult result = performPoW(remote, local, 60_000);
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, result.getOutcome());
+    Assert.assertEquals(attached, result.getTrytes());
+  }
+
+  @Test
+  public void skipsInvalidLocalResult() {
+    StubPoW remote = StubPoW.answering(300, attached);
+    StubPoW local = StubPoW.answering(0, transaction);
+
+    PoWResult result = performPoW(remote, local, 0);
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, result.getOutcome());
+    Assert.assertEquals(attached, result.getTrytes());
+  }
+
+  @Test
+  public void failsWhenNoResultPassesTheFilter() {
+    StubPoW remote = StubPoW.answering(0, attached);
+    StubPoW local = StubPoW.answering(0, attached);
+
+    PoWResult result = performPoW(remote, local, 0, 10_000, hashTrits -> false);
+
+    Assert.assertEquals(PoWResult.Outcome.FAILED, result.getOutcome());
+    Assert.assertFalse(result.isFound());
+  }
+
+  @Test
+  public void cancelsBothSidesAtDeadline() throws InterruptedException {
+    // Neither stub watches the deadline, so it has to be enforced by the race
+    StubPoW remote = StubPoW.answering(NEVER, null);
+    StubPoW local = StubPoW.answering(NEVER, null);
+
+    long start = System.nanoTime();
+    PoWResult result = performPoW(remote, local, 50, 500, hashTrits -> true);
+
+    Assert.assertEquals(PoWResult.Outcome.DEADLINE_EXCEEDED, result.getOutcome());
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertCancelled(remote);
+    assertCancelled(local);
+  }
+
+  /**
+   * Answers with fixed trytes or an exception after a delay, or waits to be interrupted.
+   */
+  private static class StubPoW implements FilteringPoW {
+    private final long delayMillis;
+    private final String trytes;
+    private final boolean fail;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    private StubPoW(long delayMillis, String trytes, boolean fail) {
+      this.delayMillis = delayMillis;
+      this.trytes = trytes;
+      this.fail = fail;
+    }
+
+    private static StubPoW answering(long delayMillis, String trytes) {
+      return new StubPoW(delayMillis, trytes, false);
+    }
+
+    private static StubPoW failing(long delayMillis) {
+      return new StubPoW(delayMillis, null, true);
+    }
+
+    @Override
+    public String performPoW(String trytes, int minWeightMagnitude) {
+      PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+      return result == null ? null : result.getTrytes();
+    }
+
+    @Override
+    public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter,
+                                long deadlineNanos) {
+      started.countDown();
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        cancelled.countDown();
+        Thread.currentThread().interrupt();
+        return PoWResult.notFound(PoWResult.Outcome.CANCELLED, 0, 0, 0);
+      }
+
+      if (fail) {
+        throw new IllegalStateException("PoW failed");
+      }
+      return PoWResult.found(this.trytes, 0, 0, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+  }
+}
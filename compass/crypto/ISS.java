@@ -25,7 +25,6 @@
 
 package org.iota.compass.crypto;
 
-import org.iota.jota.pow.ICurl;
 import org.iota.jota.pow.JCurl;
 import org.iota.jota.pow.SpongeFactory;
 
@@ -48,27 +47,46 @@ public class ISS {
     }
 
     final int[] subseedPreimage = Arrays.copyOf(seed, seed.length);
-
-    while (index-- > 0) {
-
-      for (int i = 0; i < subseedPreimage.length; i++) {
-
-        if (++subseedPreimage[i] > MAX_TRIT_VALUE) {
-          subseedPreimage[i] = MIN_TRIT_VALUE;
-        } else {
-          break;
-        }
-      }
-    }
+    addIndex(subseedPreimage, index);
 
     final int[] subseed = new int[JCurl.HASH_LENGTH];
 
-    final ICurl hash = SpongeFactory.create(mode);
+    final Sponge hash = Sponges.forThread(mode);
     hash.absorb(subseedPreimage, 0, subseedPreimage.length);
     hash.squeeze(subseed, 0, subseed.length);
     return subseed;
   }
 
+  /**
+   * Adds {@code index} to the balanced ternary number {@code trits} (least significant trit first), discarding the
+   * final carry. This is equivalent to incrementing {@code trits} {@code index} times, but takes O(log3 index) steps.
+   */
+  public static void addIndex(final int[] trits, long index) {
+    int carry = 0;
+
+    for (int i = 0; i < trits.length && (index != 0 || carry != 0); i++) {
+      int digit = (int) (index % 3);
+      index /= 3;
+      if (digit == 2) {
+        // 2 = 3 - 1, i.e. a -1 in this position and a carry into the next one
+        digit = -1;
+        index++;
+      }
+
+      int sum = trits[i] + digit + carry;
+      if (sum > MAX_TRIT_VALUE) {
+        sum -= 3;
+        carry = 1;
+      } else if (sum < MIN_TRIT_VALUE) {
+        sum += 3;
+        carry = -1;
+      } else {
+        carry = 0;
+      }
+      trits[i] = sum;
+    }
+  }
+
   public static int[] key(SpongeFactory.Mode mode, final int[] subseed, final int numberOfFragments) {
 
     if (subseed.length != JCurl.HASH_LENGTH) {
@@ -80,9 +98,9 @@ public class ISS {
 
     final int[] key = new int[FRAGMENT_LENGTH * numberOfFragments];
 
-    final ICurl hash = SpongeFactory.create(mode);
+    final Sponge hash = Sponges.forThread(mode);
     hash.absorb(subseed, 0, subseed.length);
-    hash.squeeze(key, 0, key.length);
+    squeezeKey(hash, key, 0, key.length);
     return key;
   }
 
@@ -93,27 +111,37 @@ public class ISS {
     }
 
     final int[] digests = new int[key.length / FRAGMENT_LENGTH * JCurl.HASH_LENGTH];
-    final ICurl hash = SpongeFactory.create(mode);
-
-    for (int i = 0; i < key.length / FRAGMENT_LENGTH; i++) {
+    final int[] buffer = Arrays.copyOf(key, key.length);
 
-      final int[] buffer = Arrays.copyOfRange(key, i * FRAGMENT_LENGTH, (i + 1) * FRAGMENT_LENGTH);
-      for (int j = 0; j < NUMBER_OF_FRAGMENT_CHUNKS; j++) {
+    hashChains(mode, buffer, 0, key.length / JCurl.HASH_LENGTH, MAX_TRYTE_VALUE - MIN_TRYTE_VALUE);
 
-        for (int k = MAX_TRYTE_VALUE - MIN_TRYTE_VALUE; k-- > 0; ) {
-          hash.reset();
-          hash.absorb(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-          hash.squeeze(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-        }
-      }
+    final Sponge hash = Sponges.forThread(mode);
+    for (int i = 0; i < key.length / FRAGMENT_LENGTH; i++) {
       hash.reset();
-      hash.absorb(buffer, 0, buffer.length);
+      hash.absorb(buffer, i * FRAGMENT_LENGTH, FRAGMENT_LENGTH);
       hash.squeeze(digests, i * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
     }
 
     return digests;
   }
 
+  /**
+   * Like {@link #digests(SpongeFactory.Mode, int[])} for a packed key.
+   */
+  public static int[] digests(SpongeFactory.Mode mode, final TritBuffer key) {
+
+    if (key.length() == 0 || key.length() % FRAGMENT_LENGTH != 0) {
+      throw new RuntimeException("Invalid key length: " + key.length());
+    }
+
+    final int[] digests = new int[key.length() / FRAGMENT_LENGTH * JCurl.HASH_LENGTH];
+    final int[] buffer = new int[key.length()];
+    ISSInPlace.digests(mode, key, digests, buffer);
+    Arrays.fill(buffer, 0);
+
+    return digests;
+  }
+
   public static int[] address(SpongeFactory.Mode mode, final int[] digests) {
 
     if (digests.length == 0 || digests.length % JCurl.HASH_LENGTH != 0) {
@@ -122,13 +150,28 @@ public class ISS {
 
     final int[] address = new int[JCurl.HASH_LENGTH];
 
-    final ICurl hash = SpongeFactory.create(mode);
+    final Sponge hash = Sponges.forThread(mode);
     hash.absorb(digests, 0, digests.length);
     hash.squeeze(address, 0, address.length);
 
     return address;
   }
 
+  /**
+   * Like {@link #address(SpongeFactory.Mode, int[])} for packed digests.
+   */
+  public static int[] address(SpongeFactory.Mode mode, final TritBuffer digests) {
+
+    if (digests.length() == 0 || digests.length() % JCurl.HASH_LENGTH != 0) {
+      throw new RuntimeException("Invalid digests length: " + digests.length());
+    }
+
+    final int[] address = new int[JCurl.HASH_LENGTH];
+    Hasher.hashTrits(mode, digests, 0, digests.length(), address);
+
+    return address;
+  }
+
   public static int[] normalizedBundle(final int[] bundle) {
 
     if (bundle.length != JCurl.HASH_LENGTH) {
@@ -186,16 +229,12 @@ public class ISS {
     }
 
     final int[] signatureFragment = Arrays.copyOf(keyFragment, keyFragment.length);
-    final ICurl hash = SpongeFactory.create(mode);
 
+    final int[] steps = new int[NUMBER_OF_FRAGMENT_CHUNKS];
     for (int j = 0; j < NUMBER_OF_FRAGMENT_CHUNKS; j++) {
-
-      for (int k = MAX_TRYTE_VALUE - normalizedBundleFragment[j]; k-- > 0; ) {
-        hash.reset();
-        hash.absorb(signatureFragment, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-        hash.squeeze(signatureFragment, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-      }
+      steps[j] = MAX_TRYTE_VALUE - normalizedBundleFragment[j];
     }
+    hashChains(mode, signatureFragment, 0, steps);
 
     return signatureFragment;
   }
@@ -211,26 +250,70 @@ public class ISS {
 
     final int[] digest = new int[JCurl.HASH_LENGTH];
     final int[] buffer = Arrays.copyOf(signatureFragment, FRAGMENT_LENGTH);
-    final ICurl hash = SpongeFactory.create(mode);
-    for (int j = 0; j < NUMBER_OF_FRAGMENT_CHUNKS; j++) {
 
-      for (int k = normalizedBundleFragment[j] - MIN_TRYTE_VALUE; k-- > 0; ) {
-        hash.reset();
-        hash.absorb(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-        hash.squeeze(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-      }
+    final int[] steps = new int[NUMBER_OF_FRAGMENT_CHUNKS];
+    for (int j = 0; j < NUMBER_OF_FRAGMENT_CHUNKS; j++) {
+      steps[j] = normalizedBundleFragment[j] - MIN_TRYTE_VALUE;
     }
-    hash.reset();
+    hashChains(mode, buffer, 0, steps);
+
+    final Sponge hash = Sponges.forThread(mode);
     hash.absorb(buffer, 0, buffer.length);
     hash.squeeze(digest, 0, digest.length);
 
     return digest;
   }
 
+  /**
+   * Squeezes a key out of {@code hash}, using the bulk key expansion of {@link Kerl} where possible.
+   */
+  static void squeezeKey(Sponge hash, int[] key, int offset, int length) {
+    if (hash instanceof Kerl) {
+      ((Kerl) hash).squeezeKey(key, offset, length);
+    } else {
+      hash.squeeze(key, offset, length);
+    }
+  }
+
+  /**
+   * Replaces the {@code steps.length} consecutive chunks of {@code buffer} starting at {@code offset} by the result of
+   * hashing chunk {@code j} {@code steps[j]} times with a fresh sponge, i.e. advances their Winternitz hash chains.
+   * Curl-P chains are advanced together in bit-sliced lanes.
+   */
+  static void hashChains(SpongeFactory.Mode mode, int[] buffer, int offset, int[] steps) {
+    if (MultiLaneCurl.supports(mode)) {
+      MultiLaneCurl.forThread(mode).hashChains(buffer, offset, steps);
+    } else {
+      hashChains(Sponges.forThread(mode), buffer, offset, steps.length, steps, 0);
+    }
+  }
+
+  /**
+   * Like {@link #hashChains(SpongeFactory.Mode, int[], int, int[])}, hashing each of the {@code chains} chunks
+   * {@code steps} times.
+   */
+  static void hashChains(SpongeFactory.Mode mode, int[] buffer, int offset, int chains, int steps) {
+    if (MultiLaneCurl.supports(mode)) {
+      MultiLaneCurl.forThread(mode).hashChains(buffer, offset, chains, steps);
+    } else {
+      hashChains(Sponges.forThread(mode), buffer, offset, chains, null, steps);
+    }
+  }
+
+  private static void hashChains(Sponge hash, int[] buffer, int offset, int chains, int[] steps, int uniformSteps) {
+    for (int j = 0; j < chains; j++) {
+      for (int k = steps == null ? uniformSteps : steps[j]; k-- > 0; ) {
+        hash.reset();
+        hash.absorb(buffer, offset + j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+        hash.squeeze(buffer, offset + j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+      }
+    }
+  }
+
   public static int[] getMerkleRoot(SpongeFactory.Mode mode, final int[] inHash, int[] trits, int offset, final int indexIn, int size) {
     int index = indexIn;
     int[] hash = inHash.clone();
-    final ICurl curl = SpongeFactory.create(mode);
+    final Sponge curl = Sponges.forThread(mode);
     for (int i = 0; i < size; i++) {
       curl.reset();
       if ((index & 1) == 0) {
@@ -249,4 +332,32 @@ public class ISS {
     }
     return hash;
   }
+
+  /**
+   * Like {@link #getMerkleRoot(SpongeFactory.Mode, int[], int[], int, int, int)} for packed siblings, which are
+   * absorbed without unpacking the whole path.
+   */
+  public static int[] getMerkleRoot(SpongeFactory.Mode mode, final int[] inHash, TritBuffer trits, int offset,
+                                    final int indexIn, int size) {
+    int index = indexIn;
+    int[] hash = inHash.clone();
+    final Sponge curl = Sponges.forThread(mode);
+    for (int i = 0; i < size; i++) {
+      curl.reset();
+      if ((index & 1) == 0) {
+        curl.absorb(hash, 0, hash.length);
+        trits.absorbInto(curl, offset + i * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+      } else {
+        trits.absorbInto(curl, offset + i * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+        curl.absorb(hash, 0, hash.length);
+      }
+      curl.squeeze(hash, 0, hash.length);
+
+      index >>= 1;
+    }
+    if (index != 0) {
+      return new int[JCurl.HASH_LENGTH];
+    }
+    return hash;
+  }
 }
@@ -25,7 +25,6 @@
 
 package org.iota.compass.crypto;
 
-import org.iota.jota.pow.ICurl;
 import org.iota.jota.pow.JCurl;
 import org.iota.jota.pow.SpongeFactory;
 
@@ -41,10 +40,16 @@ public class ISSInPlace {
   public static final int TRYTE_WIDTH = 3;
   private static final int NUMBER_OF_SECURITY_LEVELS = 3;
   public static final int NORMALIZED_FRAGMENT_LENGTH = JCurl.HASH_LENGTH / TRYTE_WIDTH / NUMBER_OF_SECURITY_LEVELS;
-  private static final int MIN_TRIT_VALUE = -1, MAX_TRIT_VALUE = 1;
   private static final int MIN_TRYTE_VALUE = -13, MAX_TRYTE_VALUE = 13;
 
   public static void subseed(SpongeFactory.Mode mode, int[] subseed, long index) {
+    subseed(Sponges.forThread(mode), subseed, index);
+  }
+
+  /**
+   * @param hash a reset sponge of the signature mode, e.g. {@link Sponges#forThread(SpongeFactory.Mode)}
+   */
+  public static void subseed(Sponge hash, int[] subseed, long index) {
 
     if (index < 0) {
       throw new RuntimeException("Invalid subseed index: " + index);
@@ -54,23 +59,20 @@ public class ISSInPlace {
       throw new IllegalArgumentException("Subseed array is not of HASH_LENGTH");
     }
 
-    while (index-- > 0) {
-      for (int i = 0; i < subseed.length; i++) {
-
-        if (++subseed[i] > MAX_TRIT_VALUE) {
-          subseed[i] = MIN_TRIT_VALUE;
-        } else {
-          break;
-        }
-      }
-    }
+    ISS.addIndex(subseed, index);
 
-    final ICurl hash = SpongeFactory.create(mode);
     hash.absorb(subseed, 0, subseed.length);
     hash.squeeze(subseed, 0, subseed.length);
   }
 
   public static void key(SpongeFactory.Mode mode, final int[] subseed, int[] key) {
+    key(Sponges.forThread(mode), subseed, key);
+  }
+
+  /**
+   * @param hash a reset sponge of the signature mode, e.g. {@link Sponges#forThread(SpongeFactory.Mode)}
+   */
+  public static void key(Sponge hash, final int[] subseed, int[] key) {
 
     if (subseed.length != JCurl.HASH_LENGTH) {
       throw new RuntimeException("Invalid subseed length: " + subseed.length);
@@ -86,12 +88,38 @@ public class ISSInPlace {
       throw new RuntimeException("Invalid number of key fragments: " + numberOfFragments);
     }
 
-    final ICurl hash = SpongeFactory.create(mode);
     hash.absorb(subseed, 0, subseed.length);
-    hash.squeeze(key, 0, key.length);
+    ISS.squeezeKey(hash, key, 0, key.length);
+  }
+
+  /**
+   * Like {@link #key(Sponge, int[], int[])}, squeezing the key into packed trits.
+   */
+  public static void key(Sponge hash, final int[] subseed, TritBuffer key) {
+
+    if (subseed.length != JCurl.HASH_LENGTH) {
+      throw new RuntimeException("Invalid subseed length: " + subseed.length);
+    }
+
+    if (key.length() == 0 || key.length() % FRAGMENT_LENGTH != 0) {
+      throw new IllegalArgumentException("key length must be multiple of fragment length");
+    }
+
+    hash.absorb(subseed, 0, subseed.length);
+    key.squeezeFrom(hash, 0, key.length());
   }
 
   public static void digests(SpongeFactory.Mode mode, final int[] key, int[] digests) {
+    final int[] buffer = new int[key.length];
+    digests(mode, key, digests, buffer);
+    Arrays.fill(buffer, 0);
+  }
+
+  /**
+   * @param buffer receives the ends of the hash chains, must be as long as {@code key}; pass {@code key} itself to
+   *               hash the key in place when it is not needed afterwards
+   */
+  public static void digests(SpongeFactory.Mode mode, final int[] key, int[] digests, int[] buffer) {
 
     if (key.length == 0 || key.length % FRAGMENT_LENGTH != 0) {
       throw new RuntimeException("Invalid key length: " + key.length);
@@ -101,26 +129,47 @@ public class ISSInPlace {
       throw new IllegalArgumentException("Invalid digests length");
     }
 
-    final ICurl hash = SpongeFactory.create(mode);
+    if (buffer.length != key.length) {
+      throw new IllegalArgumentException("Invalid buffer length");
+    }
 
-    for (int i = 0; i < key.length / FRAGMENT_LENGTH; i++) {
+    if (buffer != key) {
+      System.arraycopy(key, 0, buffer, 0, key.length);
+    }
 
-      final int[] buffer = Arrays.copyOfRange(key, i * FRAGMENT_LENGTH, (i + 1) * FRAGMENT_LENGTH);
-      for (int j = 0; j < NUMBER_OF_FRAGMENT_CHUNKS; j++) {
+    ISS.hashChains(mode, buffer, 0, key.length / JCurl.HASH_LENGTH, MAX_TRYTE_VALUE - MIN_TRYTE_VALUE);
 
-        for (int k = MAX_TRYTE_VALUE - MIN_TRYTE_VALUE; k-- > 0; ) {
-          hash.reset();
-          hash.absorb(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-          hash.squeeze(buffer, j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
-        }
-      }
+    final Sponge hash = Sponges.forThread(mode);
+    for (int i = 0; i < key.length / FRAGMENT_LENGTH; i++) {
       hash.reset();
-      hash.absorb(buffer, 0, buffer.length);
+      hash.absorb(buffer, i * FRAGMENT_LENGTH, FRAGMENT_LENGTH);
       hash.squeeze(digests, i * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
     }
   }
 
+  /**
+   * Like {@link #digests(SpongeFactory.Mode, int[], int[], int[])} for a packed key.
+   *
+   * @param buffer receives the unpacked key and then the ends of the hash chains, must be as long as {@code key}
+   */
+  public static void digests(SpongeFactory.Mode mode, final TritBuffer key, int[] digests, int[] buffer) {
+
+    if (buffer.length != key.length()) {
+      throw new IllegalArgumentException("Invalid buffer length");
+    }
+
+    key.get(0, buffer, 0, buffer.length);
+    digests(mode, buffer, digests, buffer);
+  }
+
   public static void address(SpongeFactory.Mode mode, final int[] digests, int[] address) {
+    address(Sponges.forThread(mode), digests, address);
+  }
+
+  /**
+   * @param hash a reset sponge of the signature mode, e.g. {@link Sponges#forThread(SpongeFactory.Mode)}
+   */
+  public static void address(Sponge hash, final int[] digests, int[] address) {
 
     if (digests.length == 0 || digests.length % JCurl.HASH_LENGTH != 0) {
       throw new RuntimeException("Invalid digests length: " + digests.length);
@@ -130,8 +179,39 @@ public class ISSInPlace {
       throw new IllegalArgumentException("Invalid address length");
     }
 
-    final ICurl hash = SpongeFactory.create(mode);
     hash.absorb(digests, 0, digests.length);
     hash.squeeze(address, 0, address.length);
   }
+
+  /**
+   * Signs with all fragments of {@code key} at once; fragment {@code i} signs the normalized bundle chunks
+   * {@code i * 27} to {@code i * 27 + 26}.
+   *
+   * @param signature receives the signature, must be as long as {@code key}; may be {@code key} itself
+   */
+  public static void signatureFragments(SpongeFactory.Mode mode, final int[] normalizedBundle, final int[] key,
+                                        int[] signature) {
+
+    if (key.length == 0 || key.length % FRAGMENT_LENGTH != 0 || key.length / FRAGMENT_LENGTH > NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid key length: " + key.length);
+    }
+
+    if (normalizedBundle.length != NORMALIZED_FRAGMENT_LENGTH * NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid normalized bundle length: " + normalizedBundle.length);
+    }
+
+    if (signature.length != key.length) {
+      throw new IllegalArgumentException("Invalid signature length");
+    }
+
+    if (signature != key) {
+      System.arraycopy(key, 0, signature, 0, key.length);
+    }
+
+    final int[] steps = new int[key.length / JCurl.HASH_LENGTH];
+    for (int j = 0; j < steps.length; j++) {
+      steps[j] = MAX_TRYTE_VALUE - normalizedBundle[j];
+    }
+    ISS.hashChains(mode, signature, 0, steps);
+  }
 }
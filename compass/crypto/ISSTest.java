@@ -0,0 +1,175 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.ICurl;
+import org.iota.jota.pow.JCurl;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * Verifies the optimized parts of ISS against their straightforward definitions.
+ */
+@RunWith(JUnit4.class)
+public class ISSTest {
+
+  private final TestRandom random = new TestRandom();
+
+  private static void increment(int[] trits, long times) {
+    while (times-- > 0) {
+      for (int i = 0; i < trits.length; i++) {
+        if (++trits[i] > 1) {
+          trits[i] = -1;
+        } else {
+          break;
+        }
+      }
+    }
+  }
+
+  private void assertSameAsIncrement(int[] seed, long index) {
+    int[] expected = Arrays.copyOf(seed, seed.length);
+    int[] actual = Arrays.copyOf(seed, seed.length);
+    increment(expected, index);
+    ISS.addIndex(actual, index);
+    Assert.assertArrayEquals("index " + index, expected, actual);
+  }
+
+  @Test
+  public void addIndexMatchesIncrement() {
+    for (long index = 0; index < 2000; index++) {
+      assertSameAsIncrement(random.nextTrits(243), index);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertSameAsIncrement(random.nextTrits(243), random.nextInt(1 << 20));
+    }
+  }
+
+  @Test
+  public void addIndexWrapsAround() {
+    // Short numbers overflow quickly, the final carry has to be discarded like the increment does
+    for (long index = 0; index < 500; index++) {
+      assertSameAsIncrement(random.nextTrits(3), index);
+    }
+    int[] max = new int[5];
+    Arrays.fill(max, 1);
+    assertSameAsIncrement(max, 1);
+    assertSameAsIncrement(max, 243);
+  }
+
+  private void assertChainsSameAsJota(SpongeFactory.Mode mode, int chains) {
+    int[] steps = new int[chains];
+    for (int j = 0; j < chains; j++) {
+      steps[j] = random.nextInt(27);
+    }
+    int[] expected = random.nextTrits(chains * JCurl.HASH_LENGTH + 5);
+    int[] actual = Arrays.copyOf(expected, expected.length);
+
+    ICurl hash = SpongeFactory.create(mode);
+    for (int j = 0; j < chains; j++) {
+      for (int k = steps[j]; k-- > 0; ) {
+        hash.reset();
+        hash.absorb(expected, 5 + j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+        hash.squeeze(expected, 5 + j * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+      }
+    }
+    new MultiLaneCurl(mode).hashChains(actual, 5, steps);
+
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void multiLaneCurlMatchesJota() {
+    // 81 chains span two batches of lanes
+    for (int chains : new int[]{1, 27, 81}) {
+      assertChainsSameAsJota(SpongeFactory.Mode.CURLP27, chains);
+      assertChainsSameAsJota(SpongeFactory.Mode.CURLP81, chains);
+    }
+  }
+
+  private void assertParallelSameAsSequential(SpongeFactory.Mode mode, int security) {
+    int[] key = ISS.key(mode, ISS.subseed(mode, random.nextTrits(JCurl.HASH_LENGTH), random.nextInt(1000)), security);
+    int[] normalizedBundle = ISS.normalizedBundle(random.nextTrits(JCurl.HASH_LENGTH));
+    String message = mode + ", security " + security;
+
+    int[] signature = new int[key.length];
+    ParallelISS.signatureFragments(mode, normalizedBundle, key, signature);
+    int[] digests = new int[security * JCurl.HASH_LENGTH];
+    ParallelISS.digests(mode, normalizedBundle, signature, digests);
+
+    for (int i = 0; i < security; i++) {
+      int[] normalizedFragment = Arrays.copyOfRange(normalizedBundle, i * ISS.NUMBER_OF_FRAGMENT_CHUNKS,
+          (i + 1) * ISS.NUMBER_OF_FRAGMENT_CHUNKS);
+      int[] signatureFragment = ISS.signatureFragment(mode, normalizedFragment,
+          Arrays.copyOfRange(key, i * ISS.FRAGMENT_LENGTH, (i + 1) * ISS.FRAGMENT_LENGTH));
+
+      Assert.assertArrayEquals(message + ", fragment " + i, signatureFragment,
+          Arrays.copyOfRange(signature, i * ISS.FRAGMENT_LENGTH, (i + 1) * ISS.FRAGMENT_LENGTH));
+      Assert.assertArrayEquals(message + ", digest " + i, ISS.digest(mode, normalizedFragment, signatureFragment),
+          Arrays.copyOfRange(digests, i * JCurl.HASH_LENGTH, (i + 1) * JCurl.HASH_LENGTH));
+    }
+    // A valid signature leads back to the digests of the key
+    Assert.assertArrayEquals(message, ISS.digests(mode, key), digests);
+
+    // Signing in place gives the same signature
+    ParallelISS.signatureFragments(mode, normalizedBundle, key, key);
+    Assert.assertArrayEquals(message + ", in place", signature, key);
+  }
+
+  @Test
+  public void parallelISSMatchesSequential() {
+    for (SpongeFactory.Mode mode : new SpongeFactory.Mode[]{SpongeFactory.Mode.KERL, SpongeFactory.Mode.CURLP27,
+        SpongeFactory.Mode.CURLP81}) {
+      for (int security = 1; security <= 3; security++) {
+        assertParallelSameAsSequential(mode, security);
+      }
+    }
+  }
+
+  @Test
+  public void packedOverloadsMatchUnpacked() {
+    for (SpongeFactory.Mode mode : new SpongeFactory.Mode[]{SpongeFactory.Mode.KERL, SpongeFactory.Mode.CURLP27,
+        SpongeFactory.Mode.CURLP81}) {
+      int[] key = ISS.key(mode, random.nextTrits(JCurl.HASH_LENGTH), 2);
+      int[] digests = ISS.digests(mode, key);
+      Assert.assertArrayEquals(mode.toString(), digests, ISS.digests(mode, TritBuffer.of(key)));
+
+      int[] address = ISS.address(mode, digests);
+      Assert.assertArrayEquals(mode.toString(), address, ISS.address(mode, TritBuffer.of(digests)));
+
+      int[] siblings = random.nextTrits(5 + 6 * JCurl.HASH_LENGTH);
+      for (int index : new int[]{0, 37, 63}) {
+        Assert.assertArrayEquals(mode + ", leaf " + index, ISS.getMerkleRoot(mode, address, siblings, 5, index, 6),
+            ISS.getMerkleRoot(mode, address, TritBuffer.of(siblings), 5, index, 6));
+      }
+    }
+  }
+}
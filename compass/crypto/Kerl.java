@@ -0,0 +1,496 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * An allocation-free implementation of Kerl (Keccak-384 on 243-trit blocks) that produces the same output as Jota's
+ * {@code Kerl}.
+ * <p>
+ * Blocks are converted between balanced ternary and 384-bit two's complement integers using 32-bit limbs and a table
+ * of powers of three instead of {@link BigInteger}, and the Keccak-f[1600] permutation is unrolled.
+ * Instances are not thread-safe but may be {@link #reset()} and reused.
+ */
+public class Kerl implements Sponge {
+
+  public static final int HASH_LENGTH = 243;
+  public static final int BIT_HASH_LENGTH = 384;
+  public static final int BYTE_HASH_LENGTH = BIT_HASH_LENGTH / 8;
+
+  // A block is 48 bytes = 6 lanes, the Keccak-384 rate is 104 bytes = 13 lanes.
+  static final int WORD_LENGTH = BYTE_HASH_LENGTH / 8;
+  private static final int RATE_LANES = (1600 - 2 * BIT_HASH_LENGTH) / 64;
+
+  private static final int LIMBS = BIT_HASH_LENGTH / 32;
+  // Length of the scratch buffers used by the block conversions
+  static final int SCRATCH_LENGTH = LIMBS + 1;
+  private static final long LIMB_MASK = 0xFFFFFFFFL;
+  // We only ever convert 242 trits as the last trit of every block is ignored.
+  private static final int CONVERTED_TRITS = HASH_LENGTH - 1;
+  // 3^20 < 2^32 for encoding; 3^19 < 2^31 for decoding, which keeps the remainder shift within a signed long.
+  private static final int ENCODE_CHUNK = 20;
+  private static final int DECODE_CHUNK = 19;
+  // 242 = 12 * 19 + 14. Constant divisors let the JIT replace the long divisions by multiplications.
+  private static final long DECODE_DIVISOR = 1162261467L; // 3^19
+  private static final int LAST_DECODE_CHUNK = CONVERTED_TRITS % DECODE_CHUNK;
+  private static final long LAST_DECODE_DIVISOR = 4782969L; // 3^14
+
+  private static final long[] POWERS_OF_THREE = new long[ENCODE_CHUNK + 1];
+  // (3^242 - 1) / 2, the offset between balanced and unbalanced ternary, in 12 limbs
+  private static final int[] HALF_MAX = new int[LIMBS];
+  // (3^242 - 1) / 2 + 3^242, added to any signed 384-bit value to make it positive, in 13 limbs
+  private static final int[] DECODE_OFFSET = new int[LIMBS + 1];
+
+  private static final long[] ROUND_CONSTANTS = {
+      0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+      0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+      0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+      0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+      0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+      0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+  };
+
+  static {
+    POWERS_OF_THREE[0] = 1;
+    for (int i = 1; i < POWERS_OF_THREE.length; i++) {
+      POWERS_OF_THREE[i] = POWERS_OF_THREE[i - 1] * 3;
+    }
+
+    BigInteger max = BigInteger.valueOf(3).pow(CONVERTED_TRITS);
+    BigInteger half = max.subtract(BigInteger.ONE).shiftRight(1);
+    toLimbs(half, HALF_MAX);
+    toLimbs(half.add(max), DECODE_OFFSET);
+  }
+
+  // Package-private so that MultiLaneKerl can start from the same midstate
+  final long[] state = new long[25];
+  int laneOffset;
+
+  private final long[] words = new long[WORD_LENGTH];
+  private final int[] limbs = new int[SCRATCH_LENGTH];
+  // Keccak output of squeezeKey, grown on demand
+  private long[] keyWords = new long[0];
+
+  @Override
+  public Kerl absorb(final int[] trits, int offset, int length) {
+    if (length % HASH_LENGTH != 0) {
+      throw new RuntimeException("Illegal length: " + length);
+    }
+
+    for (; length > 0; offset += HASH_LENGTH, length -= HASH_LENGTH) {
+      tritsToWords(trits, offset, words, limbs);
+      absorbWords(words);
+    }
+    return this;
+  }
+
+  @Override
+  public Kerl absorb(final int[] trits) {
+    return absorb(trits, 0, trits.length);
+  }
+
+  @Override
+  public int[] squeeze(final int[] trits, int offset, int length) {
+    if (length % HASH_LENGTH != 0) {
+      throw new RuntimeException("Illegal length: " + length);
+    }
+
+    for (; length > 0; offset += HASH_LENGTH, length -= HASH_LENGTH) {
+      squeezeWords(words);
+      wordsToTrits(words, trits, offset, limbs);
+    }
+    return trits;
+  }
+
+  @Override
+  public int[] squeeze(final int[] trits) {
+    return squeeze(trits, 0, trits.length);
+  }
+
+  /**
+   * Squeezes {@code length} trits exactly like {@link #squeeze(int[], int, int)}, for long outputs such as ISS keys.
+   * <p>
+   * All Keccak output blocks are generated back to back first, each one from the complement of the previous one,
+   * and then converted to trits in a single pass. The buffers of this instance are reused across calls.
+   *
+   * @param trits  destination trits
+   * @param offset offset in {@code trits}
+   * @param length number of trits, a multiple of {@link #HASH_LENGTH}
+   */
+  public void squeezeKey(final int[] trits, final int offset, final int length) {
+    if (length % HASH_LENGTH != 0) {
+      throw new RuntimeException("Illegal length: " + length);
+    }
+
+    final int blocks = length / HASH_LENGTH;
+    if (keyWords.length < blocks * WORD_LENGTH) {
+      keyWords = new long[blocks * WORD_LENGTH];
+    }
+
+    for (int b = 0; b < blocks; b++) {
+      squeezeWords(keyWords, b * WORD_LENGTH);
+    }
+    for (int b = 0; b < blocks; b++) {
+      wordsToTrits(keyWords, b * WORD_LENGTH, trits, offset + b * HASH_LENGTH, limbs);
+    }
+  }
+
+  @Override
+  public Kerl reset() {
+    Arrays.fill(state, 0);
+    laneOffset = 0;
+    return this;
+  }
+
+  /**
+   * Overwrites the sponge state of this instance with the one of {@code source}.
+   * This allows a midstate to be restored without any allocation.
+   *
+   * @param source the sponge to copy
+   * @return this instance
+   */
+  public Kerl copyFrom(Kerl source) {
+    System.arraycopy(source.state, 0, state, 0, state.length);
+    laneOffset = source.laneOffset;
+    return this;
+  }
+
+  public Kerl clone() {
+    return new Kerl().copyFrom(this);
+  }
+
+  /**
+   * Absorbs a block that has already been converted by {@link #tritsToWords(int[], int, long[], int[])}.
+   */
+  void absorbWords(long[] blockWords) {
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      state[laneOffset++] ^= blockWords[i];
+      if (laneOffset == RATE_LANES) {
+        permute(state);
+        laneOffset = 0;
+      }
+    }
+  }
+
+  /**
+   * Finalizes the current Keccak digest into {@code blockWords} and re-absorbs its complement,
+   * exactly like Jota's {@code Kerl.squeeze} does for every block.
+   */
+  void squeezeWords(long[] blockWords) {
+    squeezeWords(blockWords, 0);
+  }
+
+  private void squeezeWords(long[] blockWords, int wordOffset) {
+    // Keccak padding: 0x01 after the message, 0x80 in the last byte of the rate
+    state[laneOffset] ^= 0x01L;
+    state[RATE_LANES - 1] ^= 0x80L << 56;
+    permute(state);
+    System.arraycopy(state, 0, blockWords, wordOffset, WORD_LENGTH);
+
+    Arrays.fill(state, WORD_LENGTH, state.length, 0);
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      state[i] = ~state[i];
+    }
+    laneOffset = WORD_LENGTH;
+  }
+
+  /**
+   * Converts 243 balanced trits (ignoring the last one) into the six little-endian Keccak lanes holding
+   * the big-endian two's complement representation of their value.
+   *
+   * @param trits   the source trits
+   * @param offset  offset of the block in {@code trits}
+   * @param words   destination of length {@link #WORD_LENGTH}
+   * @param scratch scratch limbs, at least 12 long
+   */
+  static void tritsToWords(final int[] trits, final int offset, final long[] words, final int[] scratch) {
+    Arrays.fill(scratch, 0, LIMBS, 0);
+
+    // Horner's scheme on (trit + 1), most significant chunk first. 242 = 2 + 12 * 20
+    int i = CONVERTED_TRITS;
+    int chunk = CONVERTED_TRITS % ENCODE_CHUNK;
+    while (i > 0) {
+      long chunkValue = 0;
+      for (int j = 0; j < chunk; j++) {
+        chunkValue = chunkValue * 3 + trits[offset + --i] + 1;
+      }
+
+      final long multiplier = POWERS_OF_THREE[chunk];
+      long carry = chunkValue;
+      for (int k = 0; k < LIMBS; k++) {
+        final long product = (scratch[k] & LIMB_MASK) * multiplier + carry;
+        scratch[k] = (int) product;
+        carry = product >>> 32;
+      }
+      chunk = ENCODE_CHUNK;
+    }
+
+    // Jota encodes the smallest value, where all 242 trits are -1, as zero instead of -(3^242 - 1) / 2
+    int unsigned = 0;
+    for (int k = 0; k < LIMBS; k++) {
+      unsigned |= scratch[k];
+    }
+    if (unsigned == 0) {
+      Arrays.fill(words, 0, WORD_LENGTH, 0);
+      return;
+    }
+
+    // Shift back to balanced ternary; negative values wrap into two's complement
+    long borrow = 0;
+    for (int k = 0; k < LIMBS; k++) {
+      final long difference = (scratch[k] & LIMB_MASK) - (HALF_MAX[k] & LIMB_MASK) - borrow;
+      scratch[k] = (int) difference;
+      borrow = (difference >> 32) & 1;
+    }
+
+    for (int w = 0; w < WORD_LENGTH; w++) {
+      final int k = 2 * (WORD_LENGTH - 1 - w);
+      words[w] = Long.reverseBytes((scratch[k] & LIMB_MASK) | ((long) scratch[k + 1] << 32));
+    }
+  }
+
+  /**
+   * Inverse of {@link #tritsToWords(int[], int, long[], int[])}. The last trit of the block is always 0.
+   *
+   * @param words   six Keccak lanes
+   * @param trits   destination trits
+   * @param offset  offset of the block in {@code trits}
+   * @param scratch scratch limbs, at least 13 long
+   */
+  static void wordsToTrits(final long[] words, final int[] trits, final int offset, final int[] scratch) {
+    wordsToTrits(words, 0, trits, offset, scratch);
+  }
+
+  private static void wordsToTrits(final long[] words, final int wordOffset, final int[] trits, final int offset,
+                                   final int[] scratch) {
+    for (int w = 0; w < WORD_LENGTH; w++) {
+      final long word = Long.reverseBytes(words[wordOffset + w]);
+      final int k = 2 * (WORD_LENGTH - 1 - w);
+      scratch[k] = (int) word;
+      scratch[k + 1] = (int) (word >>> 32);
+    }
+    scratch[LIMBS] = scratch[LIMBS - 1] < 0 ? -1 : 0;
+
+    // Make the value positive while keeping it congruent modulo 3^242
+    long carry = 0;
+    for (int k = 0; k <= LIMBS; k++) {
+      final long sum = (scratch[k] & LIMB_MASK) + (DECODE_OFFSET[k] & LIMB_MASK) + carry;
+      scratch[k] = (int) sum;
+      carry = sum >>> 32;
+    }
+
+    int top = LIMBS;
+    int i = offset;
+    for (int c = 0; c < CONVERTED_TRITS / DECODE_CHUNK; c++) {
+      long remainder = 0;
+      for (int k = top; k >= 0; k--) {
+        final long current = (remainder << 32) | (scratch[k] & LIMB_MASK);
+        final long quotient = current / DECODE_DIVISOR;
+        scratch[k] = (int) quotient;
+        remainder = current - quotient * DECODE_DIVISOR;
+      }
+      while (top > 0 && scratch[top] == 0) {
+        top--;
+      }
+      i = writeDigits((int) remainder, DECODE_CHUNK, trits, i);
+    }
+
+    // Only the remainder of the last chunk is needed
+    long remainder = 0;
+    for (int k = top; k >= 0; k--) {
+      remainder = ((remainder << 32) | (scratch[k] & LIMB_MASK)) % LAST_DECODE_DIVISOR;
+    }
+    i = writeDigits((int) remainder, LAST_DECODE_CHUNK, trits, i);
+    trits[i] = 0;
+  }
+
+  private static int writeDigits(int digits, int count, final int[] trits, int index) {
+    for (int j = 0; j < count; j++) {
+      final int quotient = digits / 3;
+      trits[index++] = digits - quotient * 3 - 1;
+      digits = quotient;
+    }
+    return index;
+  }
+
+  private static void toLimbs(BigInteger value, int[] limbs) {
+    for (int k = 0; k < limbs.length; k++) {
+      limbs[k] = value.shiftRight(32 * k).intValue();
+    }
+  }
+
+  /**
+   * Keccak-f[1600] on a state of 25 lanes, unrolled within each round.
+   */
+  static void permute(final long[] a) {
+    long a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3], a04 = a[4];
+    long a05 = a[5], a06 = a[6], a07 = a[7], a08 = a[8], a09 = a[9];
+    long a10 = a[10], a11 = a[11], a12 = a[12], a13 = a[13], a14 = a[14];
+    long a15 = a[15], a16 = a[16], a17 = a[17], a18 = a[18], a19 = a[19];
+    long a20 = a[20], a21 = a[21], a22 = a[22], a23 = a[23], a24 = a[24];
+
+    for (int round = 0; round < 24; round++) {
+      // theta
+      long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+      long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+      long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+      long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+      long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+      final long d1 = (c1 << 1 | c1 >>> 63) ^ c4;
+      final long d2 = (c2 << 1 | c2 >>> 63) ^ c0;
+      final long d3 = (c3 << 1 | c3 >>> 63) ^ c1;
+      final long d4 = (c4 << 1 | c4 >>> 63) ^ c2;
+      final long d0 = (c0 << 1 | c0 >>> 63) ^ c3;
+
+      a00 ^= d1;
+      a05 ^= d1;
+      a10 ^= d1;
+      a15 ^= d1;
+      a20 ^= d1;
+      a01 ^= d2;
+      a06 ^= d2;
+      a11 ^= d2;
+      a16 ^= d2;
+      a21 ^= d2;
+      a02 ^= d3;
+      a07 ^= d3;
+      a12 ^= d3;
+      a17 ^= d3;
+      a22 ^= d3;
+      a03 ^= d4;
+      a08 ^= d4;
+      a13 ^= d4;
+      a18 ^= d4;
+      a23 ^= d4;
+      a04 ^= d0;
+      a09 ^= d0;
+      a14 ^= d0;
+      a19 ^= d0;
+      a24 ^= d0;
+
+      // rho & pi
+      c1 = a01 << 1 | a01 >>> 63;
+      a01 = a06 << 44 | a06 >>> 20;
+      a06 = a09 << 20 | a09 >>> 44;
+      a09 = a22 << 61 | a22 >>> 3;
+      a22 = a14 << 39 | a14 >>> 25;
+      a14 = a20 << 18 | a20 >>> 46;
+      a20 = a02 << 62 | a02 >>> 2;
+      a02 = a12 << 43 | a12 >>> 21;
+      a12 = a13 << 25 | a13 >>> 39;
+      a13 = a19 << 8 | a19 >>> 56;
+      a19 = a23 << 56 | a23 >>> 8;
+      a23 = a15 << 41 | a15 >>> 23;
+      a15 = a04 << 27 | a04 >>> 37;
+      a04 = a24 << 14 | a24 >>> 50;
+      a24 = a21 << 2 | a21 >>> 62;
+      a21 = a08 << 55 | a08 >>> 9;
+      a08 = a16 << 45 | a16 >>> 19;
+      a16 = a05 << 36 | a05 >>> 28;
+      a05 = a03 << 28 | a03 >>> 36;
+      a03 = a18 << 21 | a18 >>> 43;
+      a18 = a17 << 15 | a17 >>> 49;
+      a17 = a11 << 10 | a11 >>> 54;
+      a11 = a07 << 6 | a07 >>> 58;
+      a07 = a10 << 3 | a10 >>> 61;
+      a10 = c1;
+
+      // chi
+      c0 = a00 ^ (~a01 & a02);
+      c1 = a01 ^ (~a02 & a03);
+      a02 ^= ~a03 & a04;
+      a03 ^= ~a04 & a00;
+      a04 ^= ~a00 & a01;
+      a00 = c0;
+      a01 = c1;
+
+      c0 = a05 ^ (~a06 & a07);
+      c1 = a06 ^ (~a07 & a08);
+      a07 ^= ~a08 & a09;
+      a08 ^= ~a09 & a05;
+      a09 ^= ~a05 & a06;
+      a05 = c0;
+      a06 = c1;
+
+      c0 = a10 ^ (~a11 & a12);
+      c1 = a11 ^ (~a12 & a13);
+      a12 ^= ~a13 & a14;
+      a13 ^= ~a14 & a10;
+      a14 ^= ~a10 & a11;
+      a10 = c0;
+      a11 = c1;
+
+      c0 = a15 ^ (~a16 & a17);
+      c1 = a16 ^ (~a17 & a18);
+      a17 ^= ~a18 & a19;
+      a18 ^= ~a19 & a15;
+      a19 ^= ~a15 & a16;
+      a15 = c0;
+      a16 = c1;
+
+      c0 = a20 ^ (~a21 & a22);
+      c1 = a21 ^ (~a22 & a23);
+      a22 ^= ~a23 & a24;
+      a23 ^= ~a24 & a20;
+      a24 ^= ~a20 & a21;
+      a20 = c0;
+      a21 = c1;
+
+      // iota
+      a00 ^= ROUND_CONSTANTS[round];
+    }
+
+    a[0] = a00;
+    a[1] = a01;
+    a[2] = a02;
+    a[3] = a03;
+    a[4] = a04;
+    a[5] = a05;
+    a[6] = a06;
+    a[7] = a07;
+    a[8] = a08;
+    a[9] = a09;
+    a[10] = a10;
+    a[11] = a11;
+    a[12] = a12;
+    a[13] = a13;
+    a[14] = a14;
+    a[15] = a15;
+    a[16] = a16;
+    a[17] = a17;
+    a[18] = a18;
+    a[19] = a19;
+    a[20] = a20;
+    a[21] = a21;
+    a[22] = a22;
+    a[23] = a23;
+    a[24] = a24;
+  }
+}
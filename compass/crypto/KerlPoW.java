@@ -26,8 +26,6 @@
 package org.iota.compass.crypto;
 
 import org.iota.jota.pow.IotaLocalPoW;
-import org.iota.jota.pow.ICurl;
-import org.iota.jota.pow.SpongeFactory;
 import org.iota.jota.utils.Converter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,13 +33,29 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
- * A simple man's naive and single-threaded implementation of Kerl-based Proof-of-Work
+ * A simple man's naive implementation of Kerl-based Proof-of-Work.
+ * <p>
+ * Every searcher owns a disjoint region of the nonce space: the upper {@link #NONCE_PARTITION_LENGTH_TRIT} trits of
+ * the nonce are fixed to the searcher's index, while the lower trits are incremented by the searcher.
+ * Searchers run on a pool that lives as long as this provider.
+ * <p>
+ * Only the last {@link #HASH_LENGTH}-trit block of a transaction contains the nonce, so every searcher absorbs the
+ * fixed prefix once and then only hashes the final block for each nonce candidate.
+ * <p>
+ * Candidates that meet the MWM are additionally checked against an optional hash filter, so that nonces with
+ * unwanted hashes can be skipped without restarting the search.
+ * <p>
+ * With more than one lane, each searcher hashes that many consecutive nonce candidates together on an interleaved
+ * Keccak state (see {@link MultiLaneKerl}), so that the permutation can be executed with SIMD instructions.
  */
-public class KerlPoW implements IotaLocalPoW {
+public class KerlPoW implements IotaLocalPoW, FilteringPoW {
   private static final Logger log = LoggerFactory.getLogger("KerlPoW");
 
   private final static int NONCE_START_TRIT = 7938;
@@ -49,10 +63,40 @@ public class KerlPoW implements IotaLocalPoW {
   private final static int NONCE_START_TRYTE = NONCE_START_TRIT / 3;
   public final static int NONCE_LENGTH_TRYTE = NONCE_LENGTH_TRIT / 3;
 
-  private KerlPoWSettings settings;
+  private final static int NONCE_PARTITION_LENGTH_TRIT = 27;
+  private final static int NONCE_PARTITION_START_TRIT = NONCE_START_TRIT + NONCE_LENGTH_TRIT - NONCE_PARTITION_LENGTH_TRIT;
+  private final static int NONCE_SEARCH_LENGTH_TRIT = NONCE_LENGTH_TRIT - NONCE_PARTITION_LENGTH_TRIT;
+
+  private final static int HASH_LENGTH = 243;
+  private final static int TRANSACTION_LENGTH_TRIT = 8019;
+  private final static int LAST_BLOCK_START_TRIT = TRANSACTION_LENGTH_TRIT - HASH_LENGTH;
+
+  // Searchers publish their hash count at least this often so that it is accurate when a search is given up
+  private final static int HASH_COUNT_FLUSH_INTERVAL = 1024;
+
+  private final KerlPoWSettings settings;
+  private final ExecutorService executorService;
+
+  private volatile double lastHashRate;
 
   public KerlPoW() {
-    this(new KerlPoWSettings());
+    this(0);
+  }
+
+  /**
+   * @param numberOfThreads number of concurrent searchers; if {@code <= 0} 80% of the available processors are used
+   */
+  public KerlPoW(int numberOfThreads) {
+    this(numberOfThreads, 1);
+  }
+
+  /**
+   * @param numberOfThreads number of concurrent searchers; if {@code <= 0} 80% of the available processors are used
+   * @param lanes           number of nonce candidates each searcher hashes at once; {@code <= 1} hashes one candidate
+   *                        at a time
+   */
+  public KerlPoW(int numberOfThreads, int lanes) {
+    this(new KerlPoWSettings(numberOfThreads, Math.max(1, lanes)));
   }
 
   private KerlPoW(KerlPoWSettings settings) {
@@ -62,58 +106,131 @@ public class KerlPoW implements IotaLocalPoW {
       settings.numberOfThreads = Math.max(1, Math.floorDiv(available * 8, 10));
     }
 
-    // TODO (th0br0): fix PoW offsetting so we can use multiple threads
-    settings.numberOfThreads = 1;
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(settings.numberOfThreads, settings.numberOfThreads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread t = new Thread(r, "KerlPoW-searcher-" + threadCount.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    // Idle searcher threads are released if the provider is not used for a while
+    pool.allowCoreThreadTimeOut(true);
+    this.executorService = pool;
+  }
+
+  public int getNumberOfThreads() {
+    return settings.numberOfThreads;
+  }
+
+  public int getLanes() {
+    return settings.lanes;
+  }
+
+  /**
+   * @return the hash rate (hashes per second) of the last completed search
+   */
+  public double getHashRate() {
+    return lastHashRate;
   }
 
   @Override
   public String performPoW(String trytes, int minWeightMagnitude) {
-    final ExecutorService executorService = Executors.newFixedThreadPool(settings.numberOfThreads);
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+    return result == null ? null : result.getTrytes();
+  }
+
+  @Override
+  public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
     final AtomicBoolean resultFound = new AtomicBoolean(false);
-    final List<Searcher> searchers = IntStream.range(0, settings.numberOfThreads)
-        .mapToObj((idx) -> new Searcher(trytes, resultFound, minWeightMagnitude))
-        .collect(Collectors.toList());
-    final List<Future<String>> searcherFutures = searchers.stream()
-        .map(executorService::submit)
+    final AtomicLong rejectedCandidates = new AtomicLong();
+    final AtomicLong hashCount = new AtomicLong();
+    final CompletionService<String> completionService = new ExecutorCompletionService<>(executorService);
+    final List<Future<String>> searcherFutures = IntStream.range(0, settings.numberOfThreads)
+        .mapToObj((idx) -> new Searcher(trytes, idx, resultFound, minWeightMagnitude, hashFilter, rejectedCandidates,
+            hashCount))
+        .map(completionService::submit)
         .collect(Collectors.toList());
 
-    executorService.shutdown();
+    final long start = System.nanoTime();
+    PoWResult.Outcome outcome = PoWResult.Outcome.FAILED;
     try {
-      executorService.awaitTermination(10, TimeUnit.MINUTES);
+      for (int i = 0; i < searcherFutures.size(); i++) {
+        Future<String> f = completionService.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (f == null) {
+          log.warn("failed to calculate PoW with MWM: {} before the deadline", minWeightMagnitude);
+          outcome = PoWResult.Outcome.DEADLINE_EXCEEDED;
+          break;
+        }
 
-      for (Future<String> f : searcherFutures) {
-        if (f.isDone() && f.get() != null) {
-          return trytes.substring(0, NONCE_START_TRYTE) + f.get();
+        String nonce = f.get();
+        if (nonce != null) {
+          return PoWResult.found(trytes.substring(0, NONCE_START_TRYTE) + nonce, rejectedCandidates.get(),
+              hashCount.get(), System.nanoTime() - start);
         }
       }
-    } catch (ExecutionException | InterruptedException e) {
-      log.error("failed to calculate PoW with MWM: {} , trytes: {}", trytes, minWeightMagnitude, e);
-      return null;
+    } catch (ExecutionException e) {
+      log.error("failed to calculate PoW with MWM: {} , trytes: {}", minWeightMagnitude, trytes, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      outcome = PoWResult.Outcome.CANCELLED;
+    } finally {
+      // Stop all remaining searchers as soon as we either have a result or gave up
+      resultFound.set(true);
+      searcherFutures.forEach(f -> f.cancel(true));
+      lastHashRate = hashCount.get() * 1e9 / Math.max(1, System.nanoTime() - start);
     }
 
-    return null;
+    return PoWResult.notFound(outcome, rejectedCandidates.get(), hashCount.get(), System.nanoTime() - start);
   }
 
   private static class KerlPoWSettings {
-    private int numberOfThreads = 1;
+    private int numberOfThreads;
+    private final int lanes;
+
+    private KerlPoWSettings(int numberOfThreads, int lanes) {
+      this.numberOfThreads = numberOfThreads;
+      this.lanes = lanes;
+    }
   }
 
   class Searcher implements Callable<String> {
 
     private final AtomicBoolean resultFound;
     private final int targetZeros;
+    private final Predicate<int[]> hashFilter;
+    private final AtomicLong rejectedCandidates;
+    private final AtomicLong hashCount;
+    private int unflushedHashes;
+
+    private final Kerl prefixState = new Kerl();
+    private final Kerl sponge = new Kerl();
 
     private int[] trits;
-    private int[] hashTrits = new int[243];
+    private int[] hashTrits = new int[HASH_LENGTH];
 
-    public Searcher(String inputTrytes, AtomicBoolean resultFound, int targetZeros) {
+    public Searcher(String inputTrytes, int searcherIndex, AtomicBoolean resultFound, int targetZeros,
+                    Predicate<int[]> hashFilter, AtomicLong rejectedCandidates, AtomicLong hashCount) {
       this.resultFound = resultFound;
       this.trits = Converter.trits(inputTrytes);
       this.targetZeros = targetZeros;
+      this.hashFilter = hashFilter;
+      this.rejectedCandidates = rejectedCandidates;
+      this.hashCount = hashCount;
+
+      // Claim this searcher's partition of the nonce space
+      for (int i = NONCE_PARTITION_START_TRIT; i < NONCE_PARTITION_START_TRIT + NONCE_PARTITION_LENGTH_TRIT; i++) {
+        trits[i] = 0;
+      }
+      for (int i = 0; i < searcherIndex; i++) {
+        increment(trits, NONCE_PARTITION_START_TRIT, NONCE_PARTITION_LENGTH_TRIT);
+      }
+
+      // The prefix never changes during the search, so we only absorb it once
+      prefixState.absorb(trits, 0, LAST_BLOCK_START_TRIT);
     }
 
     private boolean shouldAbort() {
-      return resultFound.get();
+      return resultFound.get() || Thread.currentThread().isInterrupted();
     }
 
     private void increment(int[] trits, int offset, int size) {
@@ -132,22 +249,95 @@ public class KerlPoW implements IotaLocalPoW {
     }
 
     private void search() {
-      ICurl sponge = SpongeFactory.create(SpongeFactory.Mode.KERL);
-      increment(trits, NONCE_START_TRIT, NONCE_LENGTH_TRIT);
+      increment(trits, NONCE_START_TRIT, NONCE_SEARCH_LENGTH_TRIT);
 
-      sponge.absorb(trits);
-      sponge.squeeze(hashTrits);
+      sponge.copyFrom(prefixState);
+      sponge.absorb(trits, LAST_BLOCK_START_TRIT, HASH_LENGTH);
+      sponge.squeeze(hashTrits, 0, HASH_LENGTH);
+      countHashes(1);
+    }
+
+    /**
+     * Tests a hash that meets the MWM against the filter, counting it if it is rejected.
+     *
+     * @return {@code true} if the hash passes the filter
+     */
+    private boolean accept(int[] hashTrits) {
+      if (!hashFilter.test(hashTrits)) {
+        rejectedCandidates.incrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    private String searchLanes() {
+      final int lanes = settings.lanes;
+      final MultiLaneKerl lanesSponge = new MultiLaneKerl(lanes);
+      final long[] words = new long[Kerl.WORD_LENGTH];
+      final long[] laneWords = new long[Kerl.WORD_LENGTH * lanes];
+      final int[] scratch = new int[Kerl.SCRATCH_LENGTH];
+      final int[][] nonces = new int[lanes][NONCE_LENGTH_TRIT];
+
+      while (!shouldAbort()) {
+        for (int k = 0; k < lanes; k++) {
+          increment(trits, NONCE_START_TRIT, NONCE_SEARCH_LENGTH_TRIT);
+          System.arraycopy(trits, NONCE_START_TRIT, nonces[k], 0, NONCE_LENGTH_TRIT);
+          Kerl.tritsToWords(trits, LAST_BLOCK_START_TRIT, words, scratch);
+          for (int w = 0; w < Kerl.WORD_LENGTH; w++) {
+            laneWords[w * lanes + k] = words[w];
+          }
+        }
+
+        lanesSponge.copyFrom(prefixState);
+        lanesSponge.absorbWords(laneWords);
+        lanesSponge.digestWords(laneWords);
+        countHashes(lanes);
+
+        for (int k = 0; k < lanes; k++) {
+          for (int w = 0; w < Kerl.WORD_LENGTH; w++) {
+            words[w] = laneWords[w * lanes + k];
+          }
+          Kerl.wordsToTrits(words, hashTrits, 0, scratch);
+
+          if (trailingZeros(hashTrits) >= targetZeros && accept(hashTrits)) {
+            return resultFound.compareAndSet(false, true) ? Converter.trytes(nonces[k], 0, NONCE_LENGTH_TRIT) : null;
+          }
+        }
+      }
+
+      return null;
     }
 
     @Override
     public String call() {
+      try {
+        return settings.lanes > 1 ? searchLanes() : searchScalar();
+      } finally {
+        hashCount.addAndGet(unflushedHashes);
+      }
+    }
+
+    private void countHashes(int count) {
+      unflushedHashes += count;
+      if (unflushedHashes >= HASH_COUNT_FLUSH_INTERVAL) {
+        hashCount.addAndGet(unflushedHashes);
+        unflushedHashes = 0;
+      }
+    }
+
+    private String searchScalar() {
       String result = null;
       while (!shouldAbort()) {
         search();
 
         if (trailingZeros(hashTrits) >= targetZeros) {
-          result = Converter.trytes(trits, NONCE_START_TRIT, NONCE_LENGTH_TRIT);
-          resultFound.set(true);
+          if (!accept(hashTrits)) {
+            continue;
+          }
+
+          if (resultFound.compareAndSet(false, true)) {
+            result = Converter.trytes(trits, NONCE_START_TRIT, NONCE_LENGTH_TRIT);
+          }
           break;
         }
       }
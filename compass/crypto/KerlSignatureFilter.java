@@ -0,0 +1,56 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Accepts transaction hashes that can safely be signed with KERL.
+ * <p>
+ * A normalized hash that contains an 'M' (= 13) in the fragments covered by the signature would reveal the last
+ * private key chunk, so such hashes are rejected. The filter only depends on the security level, which allows remote
+ * PoW providers to apply it on their side.
+ */
+public class KerlSignatureFilter implements Predicate<int[]> {
+  private static final int M = 13;
+
+  private final int security;
+
+  public KerlSignatureFilter(int security) {
+    this.security = security;
+  }
+
+  public int getSecurity() {
+    return security;
+  }
+
+  @Override
+  public boolean test(int[] hashTrits) {
+    int[] normHash = ISS.normalizedBundle(hashTrits);
+    return Arrays.stream(normHash).limit(ISS.NUMBER_OF_FRAGMENT_CHUNKS * security).noneMatch(elem -> elem == M);
+  }
+}
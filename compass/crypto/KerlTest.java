@@ -0,0 +1,155 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.ICurl;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * Verifies the in-tree Kerl against Jota's implementation.
+ */
+@RunWith(JUnit4.class)
+public class KerlTest {
+
+  private final TestRandom random = new TestRandom();
+
+  private void assertSameAsJota(int[] input, int squeezeLength) {
+    int[] expected = new int[squeezeLength];
+    int[] actual = new int[squeezeLength];
+
+    ICurl jota = SpongeFactory.create(SpongeFactory.Mode.KERL);
+    jota.absorb(input, 0, input.length);
+    jota.squeeze(expected, 0, expected.length);
+
+    Kerl kerl = new Kerl();
+    kerl.absorb(input, 0, input.length);
+    kerl.squeeze(actual, 0, actual.length);
+
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void matchesJotaOnRandomInput() {
+    for (int i = 0; i < 100; i++) {
+      assertSameAsJota(random.nextTrits(Kerl.HASH_LENGTH * (1 + random.nextInt(33))), Kerl.HASH_LENGTH * (1 + random.nextInt(27)));
+    }
+  }
+
+  @Test
+  public void matchesJotaOnExtremeInput() {
+    for (int value = -1; value <= 1; value++) {
+      int[] trits = new int[Kerl.HASH_LENGTH * 3];
+      Arrays.fill(trits, value);
+      assertSameAsJota(trits, Kerl.HASH_LENGTH * 3);
+    }
+  }
+
+  @Test
+  public void restoresMidstate() {
+    int[] prefix = random.nextTrits(Kerl.HASH_LENGTH * 32);
+    int[] suffix = random.nextTrits(Kerl.HASH_LENGTH);
+    int[] expected = new int[Kerl.HASH_LENGTH];
+    int[] actual = new int[Kerl.HASH_LENGTH];
+
+    Kerl full = new Kerl();
+    full.absorb(prefix, 0, prefix.length);
+    full.absorb(suffix, 0, suffix.length);
+    full.squeeze(expected, 0, expected.length);
+
+    Kerl midstate = new Kerl();
+    midstate.absorb(prefix, 0, prefix.length);
+    Kerl sponge = new Kerl();
+    sponge.absorb(random.nextTrits(Kerl.HASH_LENGTH), 0, Kerl.HASH_LENGTH);
+    sponge.copyFrom(midstate);
+    sponge.absorb(suffix, 0, suffix.length);
+    sponge.squeeze(actual, 0, actual.length);
+
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void multiLaneMatchesScalar() {
+    final int lanes = 4;
+    Kerl midstate = new Kerl();
+    midstate.absorb(random.nextTrits(Kerl.HASH_LENGTH * 32), 0, Kerl.HASH_LENGTH * 32);
+
+    int[][] blocks = new int[lanes][];
+    long[] words = new long[Kerl.WORD_LENGTH];
+    long[] laneWords = new long[Kerl.WORD_LENGTH * lanes];
+    int[] scratch = new int[Kerl.SCRATCH_LENGTH];
+    for (int k = 0; k < lanes; k++) {
+      blocks[k] = random.nextTrits(Kerl.HASH_LENGTH);
+      Kerl.tritsToWords(blocks[k], 0, words, scratch);
+      for (int w = 0; w < Kerl.WORD_LENGTH; w++) {
+        laneWords[w * lanes + k] = words[w];
+      }
+    }
+
+    MultiLaneKerl multiLane = new MultiLaneKerl(lanes);
+    multiLane.copyFrom(midstate);
+    multiLane.absorbWords(laneWords);
+    multiLane.digestWords(laneWords);
+
+    int[] expected = new int[Kerl.HASH_LENGTH];
+    int[] actual = new int[Kerl.HASH_LENGTH];
+    for (int k = 0; k < lanes; k++) {
+      new Kerl().copyFrom(midstate).absorb(blocks[k]).squeeze(expected);
+      for (int w = 0; w < Kerl.WORD_LENGTH; w++) {
+        words[w] = laneWords[w * lanes + k];
+      }
+      Kerl.wordsToTrits(words, actual, 0, scratch);
+      Assert.assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void keyExpansionMatchesJota() {
+    Kerl kerl = new Kerl();
+    for (int security = 3; security >= 1; security--) {
+      int[] subseed = random.nextTrits(Kerl.HASH_LENGTH);
+      int[] expected = new int[ISS.FRAGMENT_LENGTH * security];
+      int[] actual = new int[expected.length];
+
+      ICurl jota = SpongeFactory.create(SpongeFactory.Mode.KERL);
+      jota.absorb(subseed, 0, subseed.length);
+      jota.squeeze(expected, 0, expected.length);
+
+      // the same instance is reused with shrinking keys
+      kerl.reset();
+      kerl.absorb(subseed, 0, subseed.length);
+      kerl.squeezeKey(actual, 0, actual.length);
+
+      Assert.assertArrayEquals(expected, actual);
+      Assert.assertArrayEquals(expected, ISS.key(SpongeFactory.Mode.KERL, subseed, security));
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.IotaLocalPoW;
+import org.iota.jota.utils.Converter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A bit-sliced, multi-threaded CURL-P81 Proof-of-Work engine.
+ * <p>
+ * Every trit of the Curl state is stored as one bit in each of two {@code long} words, so a single transform
+ * evaluates 64 nonce candidates. The state after absorbing all but the last transaction block is computed once
+ * per search and shared by all searchers, which each own a disjoint region of the nonce space.
+ */
+public class LocalCURLP81PoW implements IotaLocalPoW, FilteringPoW {
+  private static final Logger log = LoggerFactory.getLogger(LocalCURLP81PoW.class);
+
+  private static final int TRANSACTION_LENGTH = 8019;
+  private static final int HASH_LENGTH = 243;
+  private static final int STATE_LENGTH = 3 * HASH_LENGTH;
+  private static final int NUMBER_OF_ROUNDS = 81;
+  private static final int LAST_BLOCK_START = TRANSACTION_LENGTH - HASH_LENGTH;
+
+  // Offsets within the last block
+  private static final int NONCE_START = HASH_LENGTH - 81;
+  private static final int NONCE_PARTITION_START = NONCE_START + HASH_LENGTH / 9;
+  private static final int NONCE_SEARCH_START = NONCE_START + HASH_LENGTH / 9 * 2;
+
+  private static final int LANES = 64;
+  private static final long HIGH_BITS = 0xFFFFFFFFFFFFFFFFL;
+  private static final long LOW_BITS = 0x0000000000000000L;
+  // The first four nonce trits enumerate all 3^4 > 64 combinations across the lanes
+  private static final long LOW_0 = 0xDB6DB6DB6DB6DB6DL;
+  private static final long HIGH_0 = 0xB6DB6DB6DB6DB6DBL;
+  private static final long LOW_1 = 0xF1F8FC7E3F1F8FC7L;
+  private static final long HIGH_1 = 0x8FC7E3F1F8FC7E3FL;
+  private static final long LOW_2 = 0x7FFFE00FFFFC01FFL;
+  private static final long HIGH_2 = 0xFFC01FFFF803FFFFL;
+  private static final long LOW_3 = 0xFFC0000007FFFFFFL;
+  private static final long HIGH_3 = 0x003FFFFFFFFFFFFFL;
+
+  // Searchers publish their hash count at least this often so that it is accurate when a search is given up
+  private static final int TRANSFORM_COUNT_FLUSH_INTERVAL = 256;
+
+  private final int numberOfThreads;
+  private final ExecutorService executorService;
+
+  private volatile double lastHashRate;
+
+  public LocalCURLP81PoW() {
+    this(0);
+  }
+
+  /**
+   * @param numberOfThreads number of concurrent searchers; if {@code <= 0} all available processors are used
+   */
+  public LocalCURLP81PoW(int numberOfThreads) {
+    this.numberOfThreads = numberOfThreads > 0 ? numberOfThreads : Runtime.getRuntime().availableProcessors();
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(this.numberOfThreads, this.numberOfThreads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread t = new Thread(r, "CURLP81PoW-searcher-" + threadCount.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    pool.allowCoreThreadTimeOut(true);
+    this.executorService = pool;
+  }
+
+  public int getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  /**
+   * @return the hash rate (hashes per second) of the last completed search
+   */
+  public double getHashRate() {
+    return lastHashRate;
+  }
+
+  @Override
+  public String performPoW(String trytes, int minWeightMagnitude) {
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+    return result == null ? null : result.getTrytes();
+  }
+
+  @Override
+  public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+    final int[] trits = Converter.trits(trytes);
+    if (trits.length != TRANSACTION_LENGTH) {
+      throw new IllegalArgumentException("Invalid transaction length: " + trits.length);
+    }
+    if (minWeightMagnitude < 0 || minWeightMagnitude > HASH_LENGTH) {
+      throw new IllegalArgumentException("Invalid min weight magnitude: " + minWeightMagnitude);
+    }
+
+    final long[] midStateLow = new long[STATE_LENGTH];
+    final long[] midStateHigh = new long[STATE_LENGTH];
+    initializeMidState(trits, midStateLow, midStateHigh);
+
+    final AtomicBoolean resultFound = new AtomicBoolean(false);
+    final AtomicLong rejectedCandidates = new AtomicLong();
+    final AtomicLong hashCount = new AtomicLong();
+    final CompletionService<int[]> completionService = new ExecutorCompletionService<>(executorService);
+    final List<Future<int[]>> searcherFutures = IntStream.range(0, numberOfThreads)
+        .mapToObj(idx -> new Searcher(midStateLow, midStateHigh, idx, minWeightMagnitude, resultFound,
+            hashFilter, rejectedCandidates, hashCount))
+        .map(completionService::submit)
+        .collect(Collectors.toList());
+
+    final long start = System.nanoTime();
+    PoWResult.Outcome outcome = PoWResult.Outcome.FAILED;
+    try {
+      for (int i = 0; i < searcherFutures.size(); i++) {
+        Future<int[]> f = completionService.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (f == null) {
+          log.warn("failed to calculate PoW with MWM: {} before the deadline", minWeightMagnitude);
+          outcome = PoWResult.Outcome.DEADLINE_EXCEEDED;
+          break;
+        }
+
+        int[] nonce = f.get();
+        if (nonce != null) {
+          System.arraycopy(nonce, 0, trits, LAST_BLOCK_START + NONCE_START, nonce.length);
+          return PoWResult.found(Converter.trytes(trits), rejectedCandidates.get(), hashCount.get(),
+              System.nanoTime() - start);
+        }
+      }
+    } catch (ExecutionException e) {
+      log.error("failed to calculate PoW with MWM: {} , trytes: {}", minWeightMagnitude, trytes, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      outcome = PoWResult.Outcome.CANCELLED;
+    } finally {
+      resultFound.set(true);
+      searcherFutures.forEach(f -> f.cancel(true));
+      lastHashRate = hashCount.get() * 1e9 / Math.max(1, System.nanoTime() - start);
+    }
+
+    return PoWResult.notFound(outcome, rejectedCandidates.get(), hashCount.get(), System.nanoTime() - start);
+  }
+
+  /**
+   * Absorbs everything but the last block and prepares the last block with the lane pattern in its first nonce trits.
+   */
+  private static void initializeMidState(int[] trits, long[] low, long[] high) {
+    for (int i = HASH_LENGTH; i < STATE_LENGTH; i++) {
+      low[i] = HIGH_BITS;
+      high[i] = HIGH_BITS;
+    }
+
+    final long[] scratchpadLow = new long[STATE_LENGTH];
+    final long[] scratchpadHigh = new long[STATE_LENGTH];
+
+    int offset = 0;
+    for (int block = LAST_BLOCK_START / HASH_LENGTH; block-- > 0; ) {
+      offset = setTrits(trits, offset, low, high, HASH_LENGTH);
+      transform(low, high, scratchpadLow, scratchpadHigh);
+    }
+    setTrits(trits, offset, low, high, NONCE_START);
+
+    low[NONCE_START] = LOW_0;
+    high[NONCE_START] = HIGH_0;
+    low[NONCE_START + 1] = LOW_1;
+    high[NONCE_START + 1] = HIGH_1;
+    low[NONCE_START + 2] = LOW_2;
+    high[NONCE_START + 2] = HIGH_2;
+    low[NONCE_START + 3] = LOW_3;
+    high[NONCE_START + 3] = HIGH_3;
+  }
+
+  private static int setTrits(int[] trits, int offset, long[] low, long[] high, int length) {
+    for (int j = 0; j < length; j++) {
+      switch (trits[offset++]) {
+        case 0:
+          low[j] = HIGH_BITS;
+          high[j] = HIGH_BITS;
+          break;
+        case 1:
+          low[j] = LOW_BITS;
+          high[j] = HIGH_BITS;
+          break;
+        default:
+          low[j] = HIGH_BITS;
+          high[j] = LOW_BITS;
+      }
+    }
+    return offset;
+  }
+
+  private static int trit(long low, long high, long laneMask) {
+    if ((low & laneMask) == 0) {
+      return 1;
+    }
+    return (high & laneMask) == 0 ? -1 : 0;
+  }
+
+  private static void increment(long[] low, long[] high, int fromIndex, int toIndex) {
+    for (int i = fromIndex; i < toIndex; i++) {
+      if (low[i] == LOW_BITS) {
+        low[i] = HIGH_BITS;
+        high[i] = LOW_BITS;
+      } else if (high[i] == LOW_BITS) {
+        high[i] = HIGH_BITS;
+        break;
+      } else {
+        low[i] = LOW_BITS;
+        break;
+      }
+    }
+  }
+
+  private static void transform(long[] low, long[] high, long[] scratchpadLow, long[] scratchpadHigh) {
+    int scratchpadIndex = 0;
+    for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+      System.arraycopy(low, 0, scratchpadLow, 0, STATE_LENGTH);
+      System.arraycopy(high, 0, scratchpadHigh, 0, STATE_LENGTH);
+
+      for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
+        final long alpha = scratchpadLow[scratchpadIndex];
+        final long beta = scratchpadHigh[scratchpadIndex];
+        scratchpadIndex += scratchpadIndex < 365 ? 364 : -365;
+        final long gamma = scratchpadHigh[scratchpadIndex];
+        final long delta = (alpha | ~gamma) & (scratchpadLow[scratchpadIndex] ^ beta);
+
+        low[stateIndex] = ~delta;
+        high[stateIndex] = (alpha ^ gamma) | delta;
+      }
+    }
+  }
+
+  class Searcher implements Callable<int[]> {
+    private final long[] midStateLow;
+    private final long[] midStateHigh;
+    private final long[] stateLow = new long[STATE_LENGTH];
+    private final long[] stateHigh = new long[STATE_LENGTH];
+    private final long[] scratchpadLow = new long[STATE_LENGTH];
+    private final long[] scratchpadHigh = new long[STATE_LENGTH];
+    private final int[] hashTrits = new int[HASH_LENGTH];
+
+    private final int minWeightMagnitude;
+    private final AtomicBoolean resultFound;
+    private final Predicate<int[]> hashFilter;
+    private final AtomicLong rejectedCandidates;
+    private final AtomicLong hashCount;
+
+    Searcher(long[] midStateLow, long[] midStateHigh, int searcherIndex, int minWeightMagnitude,
+             AtomicBoolean resultFound, Predicate<int[]> hashFilter, AtomicLong rejectedCandidates, AtomicLong hashCount) {
+      this.midStateLow = midStateLow.clone();
+      this.midStateHigh = midStateHigh.clone();
+      this.minWeightMagnitude = minWeightMagnitude;
+      this.resultFound = resultFound;
+      this.hashFilter = hashFilter;
+      this.rejectedCandidates = rejectedCandidates;
+      this.hashCount = hashCount;
+
+      // Claim this searcher's partition of the nonce space
+      for (int i = 0; i < searcherIndex; i++) {
+        increment(this.midStateLow, this.midStateHigh, NONCE_PARTITION_START, NONCE_SEARCH_START);
+      }
+    }
+
+    private boolean shouldAbort() {
+      return resultFound.get() || Thread.currentThread().isInterrupted();
+    }
+
+    @Override
+    public int[] call() {
+      long transforms = 0;
+      try {
+        while (!shouldAbort()) {
+          increment(midStateLow, midStateHigh, NONCE_SEARCH_START, HASH_LENGTH);
+          System.arraycopy(midStateLow, 0, stateLow, 0, STATE_LENGTH);
+          System.arraycopy(midStateHigh, 0, stateHigh, 0, STATE_LENGTH);
+          transform(stateLow, stateHigh, scratchpadLow, scratchpadHigh);
+          if (++transforms == TRANSFORM_COUNT_FLUSH_INTERVAL) {
+            hashCount.addAndGet(transforms * LANES);
+            transforms = 0;
+          }
+
+          long mask = HIGH_BITS;
+          for (int i = minWeightMagnitude; i-- > 0; ) {
+            mask &= ~(stateLow[HASH_LENGTH - 1 - i] ^ stateHigh[HASH_LENGTH - 1 - i]);
+            if (mask == 0) {
+              break;
+            }
+          }
+
+          while (mask != 0) {
+            final long laneMask = Long.lowestOneBit(mask);
+            mask &= ~laneMask;
+
+            for (int i = 0; i < HASH_LENGTH; i++) {
+              hashTrits[i] = trit(stateLow[i], stateHigh[i], laneMask);
+            }
+            if (!hashFilter.test(hashTrits)) {
+              rejectedCandidates.incrementAndGet();
+              continue;
+            }
+
+            if (!resultFound.compareAndSet(false, true)) {
+              return null;
+            }
+
+            final int[] nonce = new int[HASH_LENGTH - NONCE_START];
+            for (int i = 0; i < nonce.length; i++) {
+              nonce[i] = trit(midStateLow[NONCE_START + i], midStateHigh[NONCE_START + i], laneMask);
+            }
+            return nonce;
+          }
+        }
+        return null;
+      } finally {
+        hashCount.addAndGet(transforms * LANES);
+      }
+    }
+  }
+}
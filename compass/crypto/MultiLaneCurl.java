@@ -0,0 +1,188 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.JCurl;
+import org.iota.jota.pow.SpongeFactory;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Advances up to 64 independent Winternitz hash chains of Curl-P at once.
+ * <p>
+ * Every trit of the Curl state is bit-sliced into two {@code long}s, bit {@code k} of both belonging to chain
+ * {@code k}, with the encoding of jota's PearlDiver: -1 = (1, 0), 0 = (1, 1), 1 = (0, 1). One step of a chain hashes a
+ * single chunk with a fresh sponge, so the chunk becomes the rate, the capacity is zero and the result is the rate
+ * after one transform.
+ */
+final class MultiLaneCurl {
+
+  static final int MAX_LANES = Long.SIZE;
+
+  private static final int HASH_LENGTH = JCurl.HASH_LENGTH;
+  private static final int STATE_LENGTH = 3 * HASH_LENGTH;
+
+  private static final ThreadLocal<Map<SpongeFactory.Mode, MultiLaneCurl>> THREAD_INSTANCES =
+      ThreadLocal.withInitial(() -> new EnumMap<>(SpongeFactory.Mode.class));
+
+  private final int numberOfRounds;
+  private final long[] stateLow = new long[STATE_LENGTH];
+  private final long[] stateHigh = new long[STATE_LENGTH];
+  private final long[] scratchpadLow = new long[STATE_LENGTH];
+  private final long[] scratchpadHigh = new long[STATE_LENGTH];
+  private final long[] savedLow = new long[HASH_LENGTH];
+  private final long[] savedHigh = new long[HASH_LENGTH];
+
+  /**
+   * @return whether {@code mode} is a Curl-P mode that this class can evaluate
+   */
+  static boolean supports(SpongeFactory.Mode mode) {
+    return mode == SpongeFactory.Mode.CURLP27 || mode == SpongeFactory.Mode.CURLP81;
+  }
+
+  /**
+   * @return this thread's instance for {@code mode}
+   */
+  static MultiLaneCurl forThread(SpongeFactory.Mode mode) {
+    return THREAD_INSTANCES.get().computeIfAbsent(mode, MultiLaneCurl::new);
+  }
+
+  MultiLaneCurl(SpongeFactory.Mode mode) {
+    if (!supports(mode)) {
+      throw new IllegalArgumentException("Unsupported sponge mode: " + mode);
+    }
+    this.numberOfRounds = mode == SpongeFactory.Mode.CURLP27 ? 27 : 81;
+  }
+
+  /**
+   * Replaces the {@code steps.length} consecutive chunks of {@code trits} starting at {@code offset} by the result of
+   * hashing chunk {@code j} {@code steps[j]} times. Chains are processed in batches of {@link #MAX_LANES}.
+   */
+  void hashChains(int[] trits, int offset, int[] steps) {
+    hashChains(trits, offset, steps.length, steps, 0);
+  }
+
+  /**
+   * Replaces the {@code chains} consecutive chunks of {@code trits} starting at {@code offset} by the result of
+   * hashing each of them {@code steps} times.
+   */
+  void hashChains(int[] trits, int offset, int chains, int steps) {
+    hashChains(trits, offset, chains, null, steps);
+  }
+
+  private void hashChains(int[] trits, int offset, int chains, int[] steps, int uniformSteps) {
+    for (int first = 0; first < chains; first += MAX_LANES) {
+      final int lanes = Math.min(MAX_LANES, chains - first);
+      final int batchOffset = offset + first * HASH_LENGTH;
+      final long allLanes = lanes == MAX_LANES ? -1L : (1L << lanes) - 1;
+
+      int maxSteps = 0;
+      for (int k = 0; k < lanes; k++) {
+        maxSteps = Math.max(maxSteps, steps == null ? uniformSteps : steps[first + k]);
+      }
+      if (maxSteps == 0) {
+        continue;
+      }
+
+      load(trits, batchOffset, lanes);
+      for (int step = 0; step < maxSteps; step++) {
+        long active = 0;
+        for (int k = 0; k < lanes; k++) {
+          if ((steps == null ? uniformSteps : steps[first + k]) > step) {
+            active |= 1L << k;
+          }
+        }
+
+        if (active != allLanes) {
+          System.arraycopy(stateLow, 0, savedLow, 0, HASH_LENGTH);
+          System.arraycopy(stateHigh, 0, savedHigh, 0, HASH_LENGTH);
+        }
+
+        Arrays.fill(stateLow, HASH_LENGTH, STATE_LENGTH, -1L);
+        Arrays.fill(stateHigh, HASH_LENGTH, STATE_LENGTH, -1L);
+        transform();
+
+        if (active != allLanes) {
+          // finished chains keep their last value
+          for (int i = 0; i < HASH_LENGTH; i++) {
+            stateLow[i] = (stateLow[i] & active) | (savedLow[i] & ~active);
+            stateHigh[i] = (stateHigh[i] & active) | (savedHigh[i] & ~active);
+          }
+        }
+      }
+      store(trits, batchOffset, lanes);
+    }
+  }
+
+  private void load(int[] trits, int offset, int lanes) {
+    for (int i = 0; i < HASH_LENGTH; i++) {
+      long low = 0;
+      long high = 0;
+      for (int k = 0; k < lanes; k++) {
+        final int trit = trits[offset + k * HASH_LENGTH + i];
+        if (trit != 1) {
+          low |= 1L << k;
+        }
+        if (trit != -1) {
+          high |= 1L << k;
+        }
+      }
+      stateLow[i] = low;
+      stateHigh[i] = high;
+    }
+  }
+
+  private void store(int[] trits, int offset, int lanes) {
+    for (int k = 0; k < lanes; k++) {
+      for (int i = 0; i < HASH_LENGTH; i++) {
+        final long low = stateLow[i] >>> k & 1;
+        final long high = stateHigh[i] >>> k & 1;
+        trits[offset + k * HASH_LENGTH + i] = low == high ? 0 : (low == 1 ? -1 : 1);
+      }
+    }
+  }
+
+  private void transform() {
+    int scratchpadIndex = 0;
+    for (int round = 0; round < numberOfRounds; round++) {
+      System.arraycopy(stateLow, 0, scratchpadLow, 0, STATE_LENGTH);
+      System.arraycopy(stateHigh, 0, scratchpadHigh, 0, STATE_LENGTH);
+
+      for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
+        final long alpha = scratchpadLow[scratchpadIndex];
+        final long beta = scratchpadHigh[scratchpadIndex];
+        scratchpadIndex += scratchpadIndex < 365 ? 364 : -365;
+        final long gamma = scratchpadHigh[scratchpadIndex];
+        final long delta = (alpha | ~gamma) & (scratchpadLow[scratchpadIndex] ^ beta);
+
+        stateLow[stateIndex] = ~delta;
+        stateHigh[stateIndex] = (alpha ^ gamma) | delta;
+      }
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+/**
+ * Evaluates Kerl on several independent inputs at once, one per lane.
+ * <p>
+ * The Keccak states are interleaved so that {@code state[i * lanes + k]} holds Keccak lane {@code i} of input
+ * {@code k}. Every step of the permutation is a loop over the inputs that the JIT can turn into SIMD instructions.
+ * All inputs must share the same absorbed length, which is the case when searching nonces from a common midstate.
+ */
+final class MultiLaneKerl {
+
+  private static final int KECCAK_LANES = 25;
+  private static final int RATE_LANES = 13;
+
+  private static final long[] ROUND_CONSTANTS = {
+      0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+      0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+      0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+      0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+      0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+      0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+  };
+
+  // rho offsets and pi destinations, indexed by source lane
+  private static final int[] RHO = {
+      0, 1, 62, 28, 27, 36, 44, 6, 55, 20, 3, 10, 43, 25, 39, 41, 45, 15, 21, 8, 18, 2, 61, 56, 14
+  };
+  private static final int[] PI = new int[KECCAK_LANES];
+
+  static {
+    for (int x = 0; x < 5; x++) {
+      for (int y = 0; y < 5; y++) {
+        PI[x + 5 * y] = y + 5 * ((2 * x + 3 * y) % 5);
+      }
+    }
+  }
+
+  private final int lanes;
+  private final long[] state;
+  private final long[] scratch;
+  private final long[] columns;
+  private int laneOffset;
+
+  MultiLaneKerl(int lanes) {
+    this.lanes = lanes;
+    this.state = new long[KECCAK_LANES * lanes];
+    this.scratch = new long[KECCAK_LANES * lanes];
+    this.columns = new long[5 * lanes];
+  }
+
+  int getLanes() {
+    return lanes;
+  }
+
+  /**
+   * Loads the state of {@code source} into every lane.
+   */
+  void copyFrom(Kerl source) {
+    for (int i = 0; i < KECCAK_LANES; i++) {
+      final long value = source.state[i];
+      for (int k = 0; k < lanes; k++) {
+        state[i * lanes + k] = value;
+      }
+    }
+    laneOffset = source.laneOffset;
+  }
+
+  /**
+   * Absorbs one block per lane.
+   *
+   * @param words {@link Kerl#WORD_LENGTH} words per lane, interleaved like the state
+   */
+  void absorbWords(long[] words) {
+    for (int w = 0; w < Kerl.WORD_LENGTH; w++) {
+      final int base = laneOffset * lanes;
+      for (int k = 0; k < lanes; k++) {
+        state[base + k] ^= words[w * lanes + k];
+      }
+      if (++laneOffset == RATE_LANES) {
+        permute();
+        laneOffset = 0;
+      }
+    }
+  }
+
+  /**
+   * Finalizes the Keccak digest of every lane. Unlike {@link Kerl#squeezeWords(long[])} the sponge is not
+   * prepared for further squeezing.
+   *
+   * @param words receives {@link Kerl#WORD_LENGTH} words per lane, interleaved like the state
+   */
+  void digestWords(long[] words) {
+    for (int k = 0; k < lanes; k++) {
+      state[laneOffset * lanes + k] ^= 0x01L;
+      state[(RATE_LANES - 1) * lanes + k] ^= 0x80L << 56;
+    }
+    permute();
+    System.arraycopy(state, 0, words, 0, Kerl.WORD_LENGTH * lanes);
+  }
+
+  private void permute() {
+    final int n = lanes;
+    final long[] a = state;
+    final long[] b = scratch;
+    final long[] c = columns;
+
+    for (int round = 0; round < 24; round++) {
+      // theta
+      for (int x = 0; x < 5; x++) {
+        for (int k = 0; k < n; k++) {
+          c[x * n + k] = a[x * n + k] ^ a[(x + 5) * n + k] ^ a[(x + 10) * n + k] ^ a[(x + 15) * n + k] ^ a[(x + 20) * n + k];
+        }
+      }
+      for (int x = 0; x < 5; x++) {
+        final int left = ((x + 4) % 5) * n;
+        final int right = ((x + 1) % 5) * n;
+        for (int k = 0; k < n; k++) {
+          final long r = c[right + k];
+          final long d = c[left + k] ^ (r << 1 | r >>> 63);
+          a[x * n + k] ^= d;
+          a[(x + 5) * n + k] ^= d;
+          a[(x + 10) * n + k] ^= d;
+          a[(x + 15) * n + k] ^= d;
+          a[(x + 20) * n + k] ^= d;
+        }
+      }
+
+      // rho & pi
+      for (int i = 0; i < KECCAK_LANES; i++) {
+        final int rotation = RHO[i];
+        final int from = i * n;
+        final int to = PI[i] * n;
+        for (int k = 0; k < n; k++) {
+          final long v = a[from + k];
+          b[to + k] = rotation == 0 ? v : (v << rotation | v >>> (64 - rotation));
+        }
+      }
+
+      // chi
+      for (int y = 0; y < 25; y += 5) {
+        for (int x = 0; x < 5; x++) {
+          final int self = (y + x) * n;
+          final int next = (y + (x + 1) % 5) * n;
+          final int nextNext = (y + (x + 2) % 5) * n;
+          for (int k = 0; k < n; k++) {
+            a[self + k] = b[self + k] ^ (~b[next + k] & b[nextNext + k]);
+          }
+        }
+      }
+
+      // iota
+      final long rc = ROUND_CONSTANTS[round];
+      for (int k = 0; k < n; k++) {
+        a[k] ^= rc;
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.JCurl;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A fixed-size list of 243 trit hashes, such as a layer of the Merkle tree, stored as packed trits.
+ * <p>
+ * Every hash takes 49 bytes instead of the roughly 200 of an 81 tryte string. Each hash starts on a byte of its own,
+ * so different threads may write different hashes concurrently. The hashes are exposed as tryte strings, or
+ * directly to a sponge through {@link #absorbInto(int, Sponge)} and {@link #squeezeFrom(int, Sponge)}.
+ */
+public final class PackedHashes extends AbstractList<String> implements RandomAccess {
+
+  private static final int STRIDE =
+      (JCurl.HASH_LENGTH + TritBuffer.TRITS_PER_BYTE - 1) / TritBuffer.TRITS_PER_BYTE * TritBuffer.TRITS_PER_BYTE;
+
+  private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[JCurl.HASH_LENGTH]);
+
+  private final TritBuffer trits;
+  private final int size;
+
+  /**
+   * @param size the number of hashes, all initially the all-9s hash
+   */
+  public PackedHashes(int size) {
+    if (size < 0 || size > Integer.MAX_VALUE / STRIDE) {
+      throw new IllegalArgumentException("Invalid number of hashes: " + size);
+    }
+    this.size = size;
+    this.trits = new TritBuffer(size * STRIDE);
+  }
+
+  public static PackedHashes of(List<String> hashes) {
+    PackedHashes packed = new PackedHashes(hashes.size());
+    for (int i = 0; i < hashes.size(); i++) {
+      packed.setTrytes(i, hashes.get(i));
+    }
+    return packed;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(int index) {
+    return TryteCodec.trytes(getTrits(index));
+  }
+
+  /**
+   * @return the previous hash, as required by {@link List#set(int, Object)}
+   */
+  @Override
+  public String set(int index, String hash) {
+    String previous = get(index);
+    setTrytes(index, hash);
+    return previous;
+  }
+
+  /**
+   * Same as {@link #set(int, String)} without decoding the previous hash.
+   */
+  public void setTrytes(int index, String hash) {
+    if (hash.length() != JCurl.HASH_LENGTH / TryteCodec.TRITS_PER_TRYTE) {
+      throw new IllegalArgumentException("Invalid hash length: " + hash.length());
+    }
+    final int[] scratch = SCRATCH.get();
+    TryteCodec.decode(hash, 0, hash.length(), scratch, 0);
+    setTrits(index, scratch);
+  }
+
+  public int[] getTrits(int index) {
+    int[] hash = new int[JCurl.HASH_LENGTH];
+    getTrits(index, hash);
+    return hash;
+  }
+
+  public void getTrits(int index, int[] hash) {
+    trits.get(offset(index), hash, 0, JCurl.HASH_LENGTH);
+  }
+
+  public void setTrits(int index, int[] hash) {
+    if (hash.length != JCurl.HASH_LENGTH) {
+      throw new IllegalArgumentException("Invalid hash length: " + hash.length);
+    }
+    trits.put(offset(index), hash, 0, JCurl.HASH_LENGTH);
+  }
+
+  public void absorbInto(int index, Sponge sponge) {
+    trits.absorbInto(sponge, offset(index), JCurl.HASH_LENGTH);
+  }
+
+  public void squeezeFrom(int index, Sponge sponge) {
+    trits.squeezeFrom(sponge, offset(index), JCurl.HASH_LENGTH);
+  }
+
+  private int offset(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    return index * STRIDE;
+  }
+}
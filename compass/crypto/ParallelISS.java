@@ -0,0 +1,178 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.JCurl;
+import org.iota.jota.pow.SpongeFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Signs and digests the fragments of a key concurrently.
+ * <p>
+ * The fragments of a security 2 or 3 key are independent, so signing a milestone and validating its signature take
+ * about as long as for a single fragment. The calling thread handles the first fragment, the others run on a small
+ * shared pool. The output is identical to the sequential {@link ISS} functions.
+ */
+public class ParallelISS {
+
+  private static final int NUMBER_OF_SECURITY_LEVELS = 3;
+  private static final int MIN_TRYTE_VALUE = -13, MAX_TRYTE_VALUE = 13;
+
+  private static final ExecutorService EXECUTOR = createExecutor();
+
+  private static ExecutorService createExecutor() {
+    final int threads = Math.max(1, Math.min(NUMBER_OF_SECURITY_LEVELS - 1, Runtime.getRuntime().availableProcessors() - 1));
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread t = new Thread(r, "ISS-fragment-" + threadCount.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Same as {@link ISSInPlace#signatureFragments(SpongeFactory.Mode, int[], int[], int[])}, one fragment per thread.
+   */
+  public static void signatureFragments(SpongeFactory.Mode mode, final int[] normalizedBundle, final int[] key,
+                                        int[] signature) {
+
+    if (key.length == 0 || key.length % ISS.FRAGMENT_LENGTH != 0 || key.length / ISS.FRAGMENT_LENGTH > NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid key length: " + key.length);
+    }
+    if (normalizedBundle.length != ISS.NORMALIZED_FRAGMENT_LENGTH * NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid normalized bundle length: " + normalizedBundle.length);
+    }
+    if (signature.length != key.length) {
+      throw new IllegalArgumentException("Invalid signature length");
+    }
+
+    forEachFragment(key.length / ISS.FRAGMENT_LENGTH, i -> {
+      final int offset = i * ISS.FRAGMENT_LENGTH;
+      if (signature != key) {
+        System.arraycopy(key, offset, signature, offset, ISS.FRAGMENT_LENGTH);
+      }
+
+      final int[] steps = new int[ISS.NUMBER_OF_FRAGMENT_CHUNKS];
+      for (int j = 0; j < steps.length; j++) {
+        steps[j] = MAX_TRYTE_VALUE - normalizedBundle[i * ISS.NUMBER_OF_FRAGMENT_CHUNKS + j];
+      }
+      ISS.hashChains(mode, signature, offset, steps);
+    });
+  }
+
+  /**
+   * Calculates the digest of every fragment of {@code signature}, like {@link ISS#digest(SpongeFactory.Mode, int[], int[])}
+   * does for a single one, with one fragment per thread.
+   *
+   * @param digests receives the digests, 243 trits per fragment
+   */
+  public static void digests(SpongeFactory.Mode mode, final int[] normalizedBundle, final int[] signature,
+                             int[] digests) {
+
+    if (signature.length == 0 || signature.length % ISS.FRAGMENT_LENGTH != 0 || signature.length / ISS.FRAGMENT_LENGTH > NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid signature length: " + signature.length);
+    }
+    if (normalizedBundle.length != ISS.NORMALIZED_FRAGMENT_LENGTH * NUMBER_OF_SECURITY_LEVELS) {
+      throw new RuntimeException("Invalid normalized bundle length: " + normalizedBundle.length);
+    }
+    if (digests.length != signature.length / ISS.FRAGMENT_LENGTH * JCurl.HASH_LENGTH) {
+      throw new IllegalArgumentException("Invalid digests length");
+    }
+
+    forEachFragment(signature.length / ISS.FRAGMENT_LENGTH, i -> {
+      final int[] buffer = new int[ISS.FRAGMENT_LENGTH];
+      System.arraycopy(signature, i * ISS.FRAGMENT_LENGTH, buffer, 0, ISS.FRAGMENT_LENGTH);
+
+      final int[] steps = new int[ISS.NUMBER_OF_FRAGMENT_CHUNKS];
+      for (int j = 0; j < steps.length; j++) {
+        steps[j] = normalizedBundle[i * ISS.NUMBER_OF_FRAGMENT_CHUNKS + j] - MIN_TRYTE_VALUE;
+      }
+      ISS.hashChains(mode, buffer, 0, steps);
+
+      final Sponge hash = Sponges.forThread(mode);
+      hash.absorb(buffer, 0, buffer.length);
+      hash.squeeze(digests, i * JCurl.HASH_LENGTH, JCurl.HASH_LENGTH);
+    });
+  }
+
+  /**
+   * Runs {@code task} for every fragment and waits for all of them, since they write into the caller's arrays.
+   * A fragment only takes milliseconds, so interrupts are deferred until all are done.
+   */
+  private static void forEachFragment(int fragments, IntConsumer task) {
+    final List<Future<?>> futures = new ArrayList<>(fragments - 1);
+    for (int i = 1; i < fragments; i++) {
+      final int fragment = i;
+      futures.add(EXECUTOR.submit(() -> task.accept(fragment)));
+    }
+
+    RuntimeException failure = null;
+    try {
+      task.accept(0);
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof RuntimeException
+                ? (RuntimeException) e.getCause()
+                : new RuntimeException(e.getCause());
+          }
+          break;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
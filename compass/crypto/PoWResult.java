@@ -0,0 +1,124 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome and telemetry of a single Proof-of-Work search.
+ */
+public class PoWResult {
+
+  public enum Outcome {
+    /**
+     * A nonce was found.
+     */
+    FOUND,
+    /**
+     * The deadline passed before a nonce was found.
+     */
+    DEADLINE_EXCEEDED,
+    /**
+     * The calling thread was interrupted.
+     */
+    CANCELLED,
+    /**
+     * The provider failed, e.g. because a remote host could not be reached.
+     */
+    FAILED
+  }
+
+  private final Outcome outcome;
+  private final String trytes;
+  private final long rejectedCandidates;
+  private final long attempts;
+  private final long elapsedNanos;
+
+  private PoWResult(Outcome outcome, String trytes, long rejectedCandidates, long attempts, long elapsedNanos) {
+    this.outcome = outcome;
+    this.trytes = trytes;
+    this.rejectedCandidates = rejectedCandidates;
+    this.attempts = attempts;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public static PoWResult found(String trytes, long rejectedCandidates, long attempts, long elapsedNanos) {
+    return new PoWResult(Outcome.FOUND, trytes, rejectedCandidates, attempts, elapsedNanos);
+  }
+
+  public static PoWResult notFound(Outcome outcome, long rejectedCandidates, long attempts, long elapsedNanos) {
+    if (outcome == Outcome.FOUND) {
+      throw new IllegalArgumentException("A search without a nonce cannot be " + outcome);
+    }
+    return new PoWResult(outcome, null, rejectedCandidates, attempts, elapsedNanos);
+  }
+
+  public Outcome getOutcome() {
+    return outcome;
+  }
+
+  public boolean isFound() {
+    return outcome == Outcome.FOUND;
+  }
+
+  /**
+   * @return the transaction trytes including the nonce, or {@code null} if no nonce was found
+   */
+  public String getTrytes() {
+    return trytes;
+  }
+
+  /**
+   * @return the number of candidates that met the MWM but were rejected by the hash filter
+   */
+  public long getRejectedCandidates() {
+    return rejectedCandidates;
+  }
+
+  /**
+   * @return the number of hashes that were computed, or 0 if the provider cannot tell
+   */
+  public long getAttempts() {
+    return attempts;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * @return hashes per second, or 0 if the provider cannot tell
+   */
+  public double getHashRate() {
+    return attempts * 1e9 / Math.max(1, elapsedNanos);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s after %d ms (%d attempts, %.0f H/s, %d rejected)", outcome,
+        TimeUnit.NANOSECONDS.toMillis(elapsedNanos), attempts, getHashRate(), rejectedCandidates);
+  }
+}
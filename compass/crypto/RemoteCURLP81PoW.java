@@ -4,32 +4,268 @@ import org.iota.jota.IotaAPI;
 import org.iota.jota.dto.response.GetAttachToTangleResponse;
 import org.iota.jota.error.ArgumentException;
 import org.iota.jota.model.Transaction;
+import org.iota.jota.pow.SpongeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URL;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-public class RemoteCURLP81PoW implements IotaRemotePoW {
+/**
+ * Performs CURL-P81 PoW on remote nodes via {@code attachToTangle}.
+ * <p>
+ * Every request is sent to the fastest healthy host, judged by a moving average of its latency and error rate.
+ * If a host fails, the request is retried on the next host, so a single slow or broken node only costs the
+ * transaction that is currently being attached rather than the whole milestone. Failed hosts are avoided for an
+ * exponentially growing period, but are still tried as a last resort.
+ * <p>
+ * Every attempt is given a multiple of the host's latency estimate, or a fair share of the remaining time for a host
+ * without one, before the request moves on to the next host; only the last host may use up the whole deadline. An
+ * attempt that times out counts as failed and as a latency sample of the time it was given, so a hanging host sinks
+ * in the ranking instead of costing every following milestone its deadline.
+ * <p>
+ * The API client of every host, and therefore its HTTP connection pool, is reused for consecutive PoW requests. It is
+ * rebuilt once it is older than twice the JVM's DNS cache TTL (matching the gRPC idle timeout of the remote signature
+ * source), or after a failed request, so that DNS changes of the PoW hosts are still picked up.
+ */
+public class RemoteCURLP81PoW implements IotaRemotePoW, FilteringPoW {
+  private static final Logger log = LoggerFactory.getLogger(RemoteCURLP81PoW.class);
+  private static final String DEFAULT_CACHE_TTL = "5";
 
-  private final URL powHost;
+  // Weight of the latest sample in the moving averages
+  private static final double SMOOTHING = 0.3;
+  private static final long MIN_BACKOFF_MILLIS = 1_000;
+  private static final long MAX_BACKOFF_MILLIS = 60_000;
+  // An attempt may take this multiple of the host's latency estimate before the next host is tried
+  private static final int ATTEMPT_TIMEOUT_FACTOR = 5;
+  private static final long MIN_ATTEMPT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final List<PoWHost> hosts;
+  private final long clientLifetimeNanos;
+  // Runs the blocking API calls so that we can stop waiting for them at the deadline
+  private final ExecutorService requestExecutor;
 
   public RemoteCURLP81PoW(URL powHost) {
-    this.powHost = powHost;
+    this(Collections.singletonList(powHost));
+  }
+
+  public RemoteCURLP81PoW(List<URL> powHosts) {
+    if (powHosts.isEmpty()) {
+      throw new IllegalArgumentException("At least one PoW host is required.");
+    }
+    this.hosts = powHosts.stream().map(PoWHost::new).collect(Collectors.toList());
+
+    String cacheTtl = Security.getProperty("networkaddress.cache.ttl");
+    if (cacheTtl == null) {
+      cacheTtl = DEFAULT_CACHE_TTL;
+    }
+    this.clientLifetimeNanos = TimeUnit.SECONDS.toNanos(Integer.valueOf(cacheTtl) * 2);
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.requestExecutor = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "RemoteCURLP81PoW-request-" + threadCount.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @return the hosts in the order they would be tried for the next request
+   */
+  private List<PoWHost> rankedHosts() {
+    final long now = System.currentTimeMillis();
+    final List<PoWHost> ranked = new ArrayList<>(hosts);
+    synchronized (this) {
+      ranked.sort(Comparator.comparing((PoWHost h) -> !h.isHealthy(now))
+          .thenComparingDouble(PoWHost::score));
+    }
+    return ranked;
   }
 
   @Override
   public String performPoW(String trytes, int minWeightMagnitude) throws ArgumentException {
-    // Build API object each time, preventing network changes between PoWs
-    IotaAPI api = new IotaAPI.Builder()
-            .protocol(powHost.getProtocol())
-            .host(powHost.getHost())
-            .port(powHost.getPort())
-            .build();
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+    return result == null ? null : result.getTrytes();
+  }
+
+  /**
+   * Attaches the transaction until its hash passes {@code hashFilter}. IRI sets a new attachment timestamp for every
+   * request, so every retry yields a different hash. The number of hashes computed remotely is unknown.
+   */
+  @Override
+  public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+    final long start = System.nanoTime();
+    long rejectedCandidates = 0;
+    try {
+      while (true) {
+        String result = attachToTangle(trytes, minWeightMagnitude, deadlineNanos);
+        if (result == null) {
+          return PoWResult.notFound(PoWResult.Outcome.FAILED, rejectedCandidates, 0, System.nanoTime() - start);
+        }
+        if (hashFilter.test(Hasher.hashTrytesToTrits(SpongeFactory.Mode.CURLP81, result))) {
+          return PoWResult.found(result, rejectedCandidates, 0, System.nanoTime() - start);
+        }
+        rejectedCandidates++;
+      }
+    } catch (TimeoutException e) {
+      log.warn("Remote PoW with MWM: {} did not finish before the deadline", minWeightMagnitude);
+      return PoWResult.notFound(PoWResult.Outcome.DEADLINE_EXCEEDED, rejectedCandidates, 0, System.nanoTime() - start);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return PoWResult.notFound(PoWResult.Outcome.CANCELLED, rejectedCandidates, 0, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @return the attached trytes, or {@code null} if all hosts failed
+   * @throws TimeoutException if the deadline passed
+   */
+  private String attachToTangle(String trytes, int minWeightMagnitude, long deadlineNanos)
+      throws InterruptedException, TimeoutException {
     Transaction txSiblings = Transaction.asTransactionObject(trytes);
-    GetAttachToTangleResponse res = api.attachToTangle(
-            txSiblings.getTrunkTransaction(),
-            txSiblings.getBranchTransaction(),
-            minWeightMagnitude,
-            trytes);
-    // We sent only one big chunk of trytes
-    return res.getTrytes()[0];
+
+    List<PoWHost> ranked = rankedHosts();
+    for (int i = 0; i < ranked.size(); i++) {
+      PoWHost host = ranked.get(i);
+      long start = System.nanoTime();
+      long remaining = deadlineNanos - start;
+      if (remaining <= 0) {
+        throw new TimeoutException();
+      }
+      long timeout = host.attemptTimeout(remaining, ranked.size() - i);
+
+      IotaAPI api = host.getApi();
+      Future<GetAttachToTangleResponse> request = requestExecutor.submit(() -> api.attachToTangle(
+          txSiblings.getTrunkTransaction(),
+          txSiblings.getBranchTransaction(),
+          minWeightMagnitude,
+          trytes));
+      try {
+        GetAttachToTangleResponse res = request.get(timeout, TimeUnit.NANOSECONDS);
+        host.recordSuccess(System.nanoTime() - start);
+        // We sent only one big chunk of trytes
+        return res.getTrytes()[0];
+      } catch (ExecutionException e) {
+        // Jota reports HTTP and connection failures as IllegalAccessError
+        host.recordFailure(api);
+        log.warn("PoW on {} failed, trying the next host.", host.url, e.getCause());
+      } catch (TimeoutException e) {
+        host.recordTimeout(api, System.nanoTime() - start);
+        if (timeout >= remaining) {
+          throw e;
+        }
+        log.warn("PoW on {} did not finish within {} ms, trying the next host.", host.url,
+            TimeUnit.NANOSECONDS.toMillis(timeout));
+      } finally {
+        request.cancel(true);
+      }
+    }
+
+    log.error("PoW failed on all {} hosts.", hosts.size());
+    return null;
+  }
+
+  private class PoWHost {
+    private final URL url;
+
+    private IotaAPI api;
+    private long apiCreatedAt;
+
+    private double latencyNanos = 0;
+    private double errorRate = 0;
+    private int consecutiveFailures = 0;
+    private long unhealthyUntil = 0;
+
+    private PoWHost(URL url) {
+      this.url = url;
+    }
+
+    private boolean isHealthy(long nowMillis) {
+      return nowMillis >= unhealthyUntil;
+    }
+
+    /**
+     * Expected time until a successful attachment. Hosts that were never used score 0 so that they get probed, while
+     * hosts that only ever failed rank behind all hosts that answered or timed out.
+     */
+    private double score() {
+      if (latencyNanos == 0) {
+        return errorRate == 0 ? 0 : Double.POSITIVE_INFINITY;
+      }
+      return latencyNanos / Math.max(0.05, 1 - errorRate);
+    }
+
+    /**
+     * @param remainingNanos time left until the deadline
+     * @param hostsLeft      number of hosts that may still be tried, including this one
+     * @return how long to wait for this host before trying the next one
+     */
+    private long attemptTimeout(long remainingNanos, int hostsLeft) {
+      if (hostsLeft == 1) {
+        return remainingNanos;
+      }
+      synchronized (RemoteCURLP81PoW.this) {
+        if (latencyNanos == 0) {
+          return remainingNanos / hostsLeft;
+        }
+        long timeout = Math.max(MIN_ATTEMPT_TIMEOUT_NANOS, (long) (ATTEMPT_TIMEOUT_FACTOR * latencyNanos));
+        return Math.min(remainingNanos, timeout);
+      }
+    }
+
+    private IotaAPI getApi() {
+      synchronized (RemoteCURLP81PoW.this) {
+        long now = System.nanoTime();
+        if (api == null || now - apiCreatedAt >= clientLifetimeNanos) {
+          api = new IotaAPI.Builder()
+              .protocol(url.getProtocol())
+              .host(url.getHost())
+              .port(url.getPort())
+              .build();
+          apiCreatedAt = now;
+        }
+        return api;
+      }
+    }
+
+    private void recordSuccess(long elapsedNanos) {
+      synchronized (RemoteCURLP81PoW.this) {
+        latencyNanos = latencyNanos == 0 ? elapsedNanos : (1 - SMOOTHING) * latencyNanos + SMOOTHING * elapsedNanos;
+        errorRate = (1 - SMOOTHING) * errorRate;
+        consecutiveFailures = 0;
+        unhealthyUntil = 0;
+      }
+    }
+
+    /**
+     * A timed out attempt took at least {@code elapsedNanos}, which is taken as a latency sample on top of the failure.
+     */
+    private void recordTimeout(IotaAPI failed, long elapsedNanos) {
+      synchronized (RemoteCURLP81PoW.this) {
+        latencyNanos = latencyNanos == 0 ? elapsedNanos : (1 - SMOOTHING) * latencyNanos + SMOOTHING * elapsedNanos;
+        recordFailure(failed);
+      }
+    }
+
+    private void recordFailure(IotaAPI failed) {
+      synchronized (RemoteCURLP81PoW.this) {
+        // Don't keep using a client whose connections might be broken
+        if (api == failed) {
+          api = null;
+        }
+        errorRate = (1 - SMOOTHING) * errorRate + SMOOTHING;
+        consecutiveFailures = Math.min(consecutiveFailures + 1, 16);
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << (consecutiveFailures - 1));
+        unhealthyUntil = System.currentTimeMillis() + backoff;
+      }
+    }
   }
 }
@@ -0,0 +1,188 @@
+package org.iota.compass.crypto;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link RemoteCURLP81PoW} against local HTTP stubs of IRI's {@code attachToTangle}, and checks how it ranks,
+ * avoids and fails over between hosts.
+ */
+@RunWith(JUnit4.class)
+public class RemoteCURLP81PoWTest {
+  private static final int MWM = 9;
+  private static final String TRANSACTION = transaction();
+
+  private final List<FakeHost> fakeHosts = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    fakeHosts.forEach(FakeHost::stop);
+  }
+
+  private static String transaction() {
+    char[] trytes = new char[2673];
+    Arrays.fill(trytes, '9');
+    return new String(trytes);
+  }
+
+  private FakeHost host(Behaviour behaviour) throws IOException {
+    FakeHost host = new FakeHost(behaviour);
+    fakeHosts.add(host);
+    return host;
+  }
+
+  private static PoWResult attach(RemoteCURLP81PoW pow, long timeoutMillis) {
+    return pow.performPoW(TRANSACTION, MWM, hashTrits -> true,
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+  }
+
+  @Test
+  public void prefersTheFasterHost() throws IOException {
+    FakeHost slow = host(Behaviour.ANSWER);
+    slow.delayMillis = 200;
+    FakeHost fast = host(Behaviour.ANSWER);
+    RemoteCURLP81PoW pow = new RemoteCURLP81PoW(Arrays.asList(slow.url(), fast.url()));
+
+    // Both hosts are probed once, after which only the faster one is used
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 10_000).getOutcome());
+    }
+    Assert.assertEquals(1, slow.requests.get());
+    Assert.assertEquals(4, fast.requests.get());
+  }
+
+  @Test
+  public void avoidsFailedHostUntilNoOtherIsLeft() throws IOException {
+    FakeHost broken = host(Behaviour.FAIL);
+    FakeHost working = host(Behaviour.ANSWER);
+    RemoteCURLP81PoW pow = new RemoteCURLP81PoW(Arrays.asList(broken.url(), working.url()));
+
+    Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 10_000).getOutcome());
+    Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 10_000).getOutcome());
+    Assert.assertEquals(1, broken.requests.get());
+    Assert.assertEquals(2, working.requests.get());
+
+    // The host that is backing off is still tried once all others failed
+    broken.behaviour = Behaviour.ANSWER;
+    working.behaviour = Behaviour.FAIL;
+    Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 10_000).getOutcome());
+    Assert.assertEquals(2, broken.requests.get());
+    Assert.assertEquals(3, working.requests.get());
+  }
+
+  @Test
+  public void failsOverFromHangingHost() throws IOException, InterruptedException {
+    FakeHost hanging = host(Behaviour.HANG);
+    FakeHost working = host(Behaviour.ANSWER);
+    RemoteCURLP81PoW pow = new RemoteCURLP81PoW(Arrays.asList(hanging.url(), working.url()));
+
+    // The unknown hanging host gets half of the time, which leaves the rest to the working one
+    long start = System.nanoTime();
+    Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 2_000).getOutcome());
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2_000));
+    Assert.assertEquals(1, hanging.requests.get());
+
+    // Once its backoff expired, the timeout still ranks the hanging host behind the working one
+    Thread.sleep(1_100);
+    Assert.assertEquals(PoWResult.Outcome.FOUND, attach(pow, 2_000).getOutcome());
+    Assert.assertEquals(1, hanging.requests.get());
+    Assert.assertEquals(2, working.requests.get());
+  }
+
+  @Test
+  public void reportsDeadlineOfLastHost() throws IOException {
+    FakeHost hanging = host(Behaviour.HANG);
+    RemoteCURLP81PoW pow = new RemoteCURLP81PoW(hanging.url());
+
+    Assert.assertEquals(PoWResult.Outcome.DEADLINE_EXCEEDED, attach(pow, 500).getOutcome());
+  }
+
+  private enum Behaviour {
+    ANSWER, FAIL, HANG
+  }
+
+  /**
+   * Answers {@code attachToTangle} with the unchanged transaction, which passes the filters of these tests.
+   */
+  private static class FakeHost implements HttpHandler {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile Behaviour behaviour;
+    private volatile long delayMillis = 0;
+
+    private FakeHost(Behaviour behaviour) throws IOException {
+      this.behaviour = behaviour;
+      this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", this);
+      server.setExecutor(executor);
+      server.start();
+    }
+
+    private URL url() throws IOException {
+      return new URL("http", "127.0.0.1", server.getAddress().getPort(), "");
+    }
+
+    private void stop() {
+      stopped.countDown();
+      server.stop(0);
+      executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try (InputStream body = exchange.getRequestBody()) {
+        while (body.read() != -1) {
+          // The request is not needed
+        }
+      }
+      requests.incrementAndGet();
+
+      try {
+        if (behaviour == Behaviour.HANG) {
+          stopped.await();
+        } else if (delayMillis > 0) {
+          Thread.sleep(delayMillis);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      int status = 200;
+      String response = "{\"trytes\":[\"" + TRANSACTION + "\"],\"duration\":0}";
+      if (behaviour != Behaviour.ANSWER) {
+        status = 500;
+        response = "{\"error\":\"Internal error\",\"duration\":0}";
+      }
+      byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+}
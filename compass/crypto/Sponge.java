@@ -0,0 +1,67 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+/**
+ * The sponge operations Compass hashes with, implemented by the in-tree {@link Curl} and {@link Kerl}.
+ * <p>
+ * Unlike Jota's {@code ICurl} this does not expose a trit state or the permutation: Kerl keeps a 1600-bit Keccak
+ * state that has no meaningful trit representation. Sponge-specific operations such as {@link Kerl#copyFrom(Kerl)}
+ * and {@link Curl#transform()} stay on the implementations.
+ */
+public interface Sponge {
+
+  /**
+   * @param trits  the trits to absorb
+   * @param offset offset in {@code trits}
+   * @param length number of trits, a multiple of 243 for Kerl
+   * @return this sponge
+   */
+  Sponge absorb(int[] trits, int offset, int length);
+
+  default Sponge absorb(int[] trits) {
+    return absorb(trits, 0, trits.length);
+  }
+
+  /**
+   * @param trits  destination trits
+   * @param offset offset in {@code trits}
+   * @param length number of trits, a multiple of 243 for Kerl
+   * @return an implementation-specific array that callers must not rely on
+   */
+  int[] squeeze(int[] trits, int offset, int length);
+
+  default int[] squeeze(int[] trits) {
+    return squeeze(trits, 0, trits.length);
+  }
+
+  /**
+   * Restores the initial state so that the instance can be reused.
+   *
+   * @return this sponge
+   */
+  Sponge reset();
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.SpongeFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Replacement for {@link SpongeFactory#create(SpongeFactory.Mode)} that returns the in-tree sponge implementations.
+ */
+public class Sponges {
+
+  private static final ThreadLocal<Map<SpongeFactory.Mode, Sponge>> THREAD_SPONGES =
+      ThreadLocal.withInitial(() -> new EnumMap<>(SpongeFactory.Mode.class));
+
+  /**
+   * @param mode the sponge mode
+   * @return a new sponge for the given mode
+   */
+  public static Sponge create(SpongeFactory.Mode mode) {
+    switch (mode) {
+      case KERL:
+        return new Kerl();
+      case CURLP27:
+      case CURLP81:
+        return new Curl(mode);
+      default:
+        throw new IllegalArgumentException("Unsupported sponge mode: " + mode);
+    }
+  }
+
+  /**
+   * Returns this thread's sponge for the given mode, reset to its initial state.
+   * <p>
+   * The sponge is shared by everything running on the thread, so it must not be held across calls that may use it
+   * as well.
+   *
+   * @param mode the sponge mode
+   * @return the reset sponge of the current thread
+   */
+  public static Sponge forThread(SpongeFactory.Mode mode) {
+    Sponge sponge = THREAD_SPONGES.get().computeIfAbsent(mode, Sponges::create);
+    sponge.reset();
+    return sponge;
+  }
+}
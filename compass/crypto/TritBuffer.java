@@ -0,0 +1,244 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.JCurl;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-length sequence of trits packed five to a byte.
+ * <p>
+ * Each byte holds the balanced ternary value {@code t0 + 3 t1 + 9 t2 + 27 t3 + 81 t4} of five consecutive trits, so a
+ * buffer takes a fifth of a byte per trit instead of the four bytes of an {@code int[]}. Sponges are fed through
+ * {@link #absorbInto(Sponge, int, int)} and {@link #squeezeFrom(Sponge, int, int)}, which unpack one hash at a time
+ * into a per-thread scratch array.
+ * <p>
+ * Instances are not thread-safe, except that threads may write to disjoint ranges that start and end on a multiple
+ * of {@link #TRITS_PER_BYTE}.
+ */
+public final class TritBuffer {
+
+  public static final int TRITS_PER_BYTE = 5;
+
+  private static final int BYTE_VALUE_OFFSET = 121;
+  private static final int[] POWERS_OF_THREE = {1, 3, 9, 27, 81};
+  private static final byte[] DECODED = new byte[243 * TRITS_PER_BYTE];
+
+  private static final ThreadLocal<int[]> CHUNK = ThreadLocal.withInitial(() -> new int[JCurl.HASH_LENGTH]);
+
+  static {
+    for (int value = -BYTE_VALUE_OFFSET; value <= BYTE_VALUE_OFFSET; value++) {
+      int remainder = value;
+      for (int k = 0; k < TRITS_PER_BYTE; k++) {
+        int trit = Math.floorMod(remainder + 1, 3) - 1;
+        DECODED[(value + BYTE_VALUE_OFFSET) * TRITS_PER_BYTE + k] = (byte) trit;
+        remainder = (remainder - trit) / 3;
+      }
+    }
+  }
+
+  private final byte[] bytes;
+  private final int length;
+
+  /**
+   * @param length the number of trits, all initially 0
+   */
+  public TritBuffer(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("Invalid length: " + length);
+    }
+    this.length = length;
+    this.bytes = new byte[packedLength(length)];
+  }
+
+  private TritBuffer(byte[] bytes, int length) {
+    this.length = length;
+    this.bytes = bytes;
+  }
+
+  public static TritBuffer of(int[] trits) {
+    TritBuffer buffer = new TritBuffer(trits.length);
+    buffer.put(0, trits, 0, trits.length);
+    return buffer;
+  }
+
+  public static TritBuffer ofTrytes(String trytes) {
+    return of(TryteCodec.trits(trytes));
+  }
+
+  /**
+   * @return the number of trits
+   */
+  public int length() {
+    return length;
+  }
+
+  public int get(int index) {
+    checkRange(index, 1);
+    return DECODED[(bytes[index / TRITS_PER_BYTE] + BYTE_VALUE_OFFSET) * TRITS_PER_BYTE + index % TRITS_PER_BYTE];
+  }
+
+  public void set(int index, int trit) {
+    checkRange(index, 1);
+    if (trit < -1 || trit > 1) {
+      throw new IllegalArgumentException("Invalid trit: " + trit);
+    }
+    int delta = (trit - get(index)) * POWERS_OF_THREE[index % TRITS_PER_BYTE];
+    bytes[index / TRITS_PER_BYTE] += delta;
+  }
+
+  /**
+   * Unpacks {@code count} trits starting at {@code offset} into {@code dest}.
+   */
+  public void get(int offset, int[] dest, int destOffset, int count) {
+    checkRange(offset, count);
+    int byteIndex = offset / TRITS_PER_BYTE;
+    int digit = offset % TRITS_PER_BYTE;
+    for (int i = 0; i < count; i++) {
+      dest[destOffset + i] = DECODED[(bytes[byteIndex] + BYTE_VALUE_OFFSET) * TRITS_PER_BYTE + digit];
+      if (++digit == TRITS_PER_BYTE) {
+        digit = 0;
+        byteIndex++;
+      }
+    }
+  }
+
+  /**
+   * Packs {@code count} trits of {@code src} into this buffer, starting at {@code offset}. The trits must be -1, 0 or 1.
+   */
+  public void put(int offset, int[] src, int srcOffset, int count) {
+    checkRange(offset, count);
+    int i = 0;
+    for (; i < count && (offset + i) % TRITS_PER_BYTE != 0; i++) {
+      set(offset + i, src[srcOffset + i]);
+    }
+
+    int byteIndex = (offset + i) / TRITS_PER_BYTE;
+    for (; count - i >= TRITS_PER_BYTE; i += TRITS_PER_BYTE) {
+      int s = srcOffset + i;
+      bytes[byteIndex++] = (byte) (src[s] + 3 * src[s + 1] + 9 * src[s + 2] + 27 * src[s + 3] + 81 * src[s + 4]);
+    }
+
+    for (; i < count; i++) {
+      set(offset + i, src[srcOffset + i]);
+    }
+  }
+
+  /**
+   * Packs {@code length} trits of {@code trits} starting at {@code offset} into a new array of
+   * {@link #packedLength(int)} bytes, in the same format as a buffer. The last byte is padded with 0 trits.
+   */
+  public static byte[] pack(int[] trits, int offset, int length) {
+    TritBuffer buffer = new TritBuffer(length);
+    buffer.put(0, trits, offset, length);
+    return buffer.bytes;
+  }
+
+  /**
+   * Unpacks {@code length} trits packed by {@link #pack(int[], int, int)} into {@code dest}.
+   *
+   * @throws IllegalArgumentException if {@code packed} is not exactly {@code length} packed trits
+   */
+  public static void unpack(byte[] packed, int[] dest, int destOffset, int length) {
+    if (packed.length != packedLength(length)) {
+      throw new IllegalArgumentException("Expected " + packedLength(length) + " bytes for " + length + " trits but got "
+          + packed.length);
+    }
+    for (byte b : packed) {
+      if (b < -BYTE_VALUE_OFFSET || b > BYTE_VALUE_OFFSET) {
+        throw new IllegalArgumentException("Invalid packed trits: " + b);
+      }
+    }
+    for (int index = length; index < packed.length * TRITS_PER_BYTE; index++) {
+      if (DECODED[(packed[index / TRITS_PER_BYTE] + BYTE_VALUE_OFFSET) * TRITS_PER_BYTE + index % TRITS_PER_BYTE] != 0) {
+        throw new IllegalArgumentException("Packed trits have non-zero padding");
+      }
+    }
+
+    TritBuffer buffer = new TritBuffer(packed, length);
+    buffer.get(0, dest, destOffset, length);
+  }
+
+  /**
+   * @return the number of bytes that hold {@code length} packed trits
+   */
+  public static int packedLength(int length) {
+    return (length + TRITS_PER_BYTE - 1) / TRITS_PER_BYTE;
+  }
+
+  public int[] toTrits() {
+    int[] trits = new int[length];
+    get(0, trits, 0, length);
+    return trits;
+  }
+
+  public String toTrytes() {
+    return TryteCodec.trytes(toTrits());
+  }
+
+  /**
+   * Sets all trits to 0.
+   */
+  public void clear() {
+    Arrays.fill(bytes, (byte) 0);
+  }
+
+  /**
+   * Absorbs {@code count} trits starting at {@code offset}, like {@code sponge.absorb(trits, offset, count)} would.
+   */
+  public void absorbInto(Sponge sponge, int offset, int count) {
+    checkRange(offset, count);
+    final int[] chunk = CHUNK.get();
+    do {
+      int n = Math.min(count, JCurl.HASH_LENGTH);
+      get(offset, chunk, 0, n);
+      sponge.absorb(chunk, 0, n);
+      offset += JCurl.HASH_LENGTH;
+    } while ((count -= JCurl.HASH_LENGTH) > 0);
+  }
+
+  /**
+   * Squeezes {@code count} trits into this buffer starting at {@code offset}, like
+   * {@code sponge.squeeze(trits, offset, count)} would.
+   */
+  public void squeezeFrom(Sponge sponge, int offset, int count) {
+    checkRange(offset, count);
+    final int[] chunk = CHUNK.get();
+    do {
+      int n = Math.min(count, JCurl.HASH_LENGTH);
+      sponge.squeeze(chunk, 0, n);
+      put(offset, chunk, 0, n);
+      offset += JCurl.HASH_LENGTH;
+    } while ((count -= JCurl.HASH_LENGTH) > 0);
+  }
+
+  private void checkRange(int offset, int count) {
+    if (offset < 0 || count < 0 || offset > length - count) {
+      throw new IndexOutOfBoundsException("Range " + offset + " + " + count + " outside of " + length + " trits");
+    }
+  }
+}
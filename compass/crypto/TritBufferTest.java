@@ -0,0 +1,119 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * Verifies the packed trit buffer against plain trit arrays.
+ */
+@RunWith(JUnit4.class)
+public class TritBufferTest {
+
+  private final TestRandom random = new TestRandom();
+
+  @Test
+  public void roundTripsUnalignedRanges() {
+    int[] expected = random.nextTrits(1000);
+    TritBuffer buffer = new TritBuffer(expected.length);
+
+    // write in pieces that start and end at arbitrary offsets
+    for (int offset = 0; offset < expected.length; ) {
+      int count = Math.min(random.nextInt(17), expected.length - offset);
+      buffer.put(offset, expected, offset, count);
+      offset += count;
+    }
+    Assert.assertArrayEquals(expected, buffer.toTrits());
+
+    for (int i = 0; i < 100; i++) {
+      int index = random.nextInt(expected.length);
+      int trit = random.nextInt(3) - 1;
+      buffer.set(index, trit);
+      expected[index] = trit;
+      Assert.assertEquals(trit, buffer.get(index));
+    }
+
+    int[] actual = new int[37];
+    buffer.get(123, actual, 0, actual.length);
+    Assert.assertArrayEquals(Arrays.copyOfRange(expected, 123, 160), actual);
+  }
+
+  @Test
+  public void feedsSponges() {
+    for (SpongeFactory.Mode mode : new SpongeFactory.Mode[]{SpongeFactory.Mode.CURLP81, SpongeFactory.Mode.KERL}) {
+      int[] input = random.nextTrits(243 * 4);
+      int[] expected = new int[243 * 2];
+
+      Sponge sponge = Sponges.create(mode);
+      sponge.absorb(input, 0, input.length);
+      sponge.squeeze(expected, 0, expected.length);
+
+      TritBuffer packed = TritBuffer.of(input);
+      TritBuffer output = new TritBuffer(expected.length + 3);
+      sponge = Sponges.create(mode);
+      packed.absorbInto(sponge, 0, input.length);
+      output.squeezeFrom(sponge, 3, expected.length);
+
+      int[] actual = new int[expected.length];
+      output.get(3, actual, 0, actual.length);
+      Assert.assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void packsForTheWire() {
+    for (int length : new int[]{0, 1, 243, 6561, 1004}) {
+      int[] trits = random.nextTrits(length + 2);
+      byte[] packed = TritBuffer.pack(trits, 2, length);
+      Assert.assertEquals(TritBuffer.packedLength(length), packed.length);
+
+      int[] actual = new int[length];
+      TritBuffer.unpack(packed, actual, 0, length);
+      Assert.assertArrayEquals(Arrays.copyOfRange(trits, 2, length + 2), actual);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonZeroPadding() {
+    // 243 trits leave two padding trits in the last byte, the highest of which is set here
+    byte[] packed = TritBuffer.pack(new int[243], 0, 243);
+    packed[packed.length - 1] = 81 - 27;
+    TritBuffer.unpack(packed, new int[243], 0, 243);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOutOfRangeBytes() {
+    byte[] packed = TritBuffer.pack(new int[10], 0, 10);
+    packed[0] = 122;
+    TritBuffer.unpack(packed, new int[10], 0, 10);
+  }
+}
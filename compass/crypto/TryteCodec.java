@@ -0,0 +1,148 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Converts between trytes and trits with lookup tables, as a replacement for jota's {@code Converter} on hot paths.
+ * <p>
+ * Besides the allocating convenience methods, trytes can be decoded into and encoded from caller-provided buffers,
+ * either as a {@link CharSequence} or as ASCII bytes.
+ */
+public final class TryteCodec {
+
+  public static final String TRYTE_ALPHABET = "9ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+  public static final int TRITS_PER_TRYTE = 3;
+
+  // three trits per ASCII character, INVALID for characters outside the alphabet
+  private static final byte INVALID = Byte.MIN_VALUE;
+  private static final byte[] TRITS_OF_CHAR = new byte[128 * TRITS_PER_TRYTE];
+  // ASCII character for (t0 + 1) + 3 (t1 + 1) + 9 (t2 + 1)
+  private static final byte[] CHAR_OF_TRITS = new byte[27];
+
+  static {
+    Arrays.fill(TRITS_OF_CHAR, INVALID);
+    for (int i = 0; i < TRYTE_ALPHABET.length(); i++) {
+      int value = i <= 13 ? i : i - 27;
+      int[] trits = {0, 0, 0};
+      for (int k = 0, remainder = value; k < TRITS_PER_TRYTE; k++) {
+        trits[k] = Math.floorMod(remainder + 1, 3) - 1;
+        remainder = (remainder - trits[k]) / 3;
+      }
+
+      char c = TRYTE_ALPHABET.charAt(i);
+      for (int k = 0; k < TRITS_PER_TRYTE; k++) {
+        TRITS_OF_CHAR[c * TRITS_PER_TRYTE + k] = (byte) trits[k];
+      }
+      CHAR_OF_TRITS[(trits[0] + 1) + 3 * (trits[1] + 1) + 9 * (trits[2] + 1)] = (byte) c;
+    }
+  }
+
+  private TryteCodec() {
+  }
+
+  public static int[] trits(CharSequence trytes) {
+    int[] trits = new int[trytes.length() * TRITS_PER_TRYTE];
+    decode(trytes, 0, trytes.length(), trits, 0);
+    return trits;
+  }
+
+  /**
+   * Decodes {@code length} trytes of {@code trytes} starting at {@code offset} into {@code trits}.
+   *
+   * @throws IllegalArgumentException if a character is not a tryte
+   */
+  public static void decode(CharSequence trytes, int offset, int length, int[] trits, int tritOffset) {
+    for (int i = 0; i < length; i++) {
+      decodeTryte(trytes.charAt(offset + i), trits, tritOffset + i * TRITS_PER_TRYTE);
+    }
+  }
+
+  /**
+   * Decodes {@code length} ASCII trytes of {@code trytes} starting at {@code offset} into {@code trits}.
+   *
+   * @throws IllegalArgumentException if a byte is not a tryte
+   */
+  public static void decode(byte[] trytes, int offset, int length, int[] trits, int tritOffset) {
+    for (int i = 0; i < length; i++) {
+      decodeTryte((char) (trytes[offset + i] & 0xFF), trits, tritOffset + i * TRITS_PER_TRYTE);
+    }
+  }
+
+  private static void decodeTryte(char c, int[] trits, int tritOffset) {
+    final int index = c * TRITS_PER_TRYTE;
+    if (c >= 128 || TRITS_OF_CHAR[index] == INVALID) {
+      throw new IllegalArgumentException("Invalid tryte: '" + c + "'");
+    }
+    trits[tritOffset] = TRITS_OF_CHAR[index];
+    trits[tritOffset + 1] = TRITS_OF_CHAR[index + 1];
+    trits[tritOffset + 2] = TRITS_OF_CHAR[index + 2];
+  }
+
+  public static String trytes(int[] trits) {
+    return trytes(trits, 0, trits.length);
+  }
+
+  /**
+   * Encodes {@code length} trits starting at {@code offset}; a trailing partial tryte is padded with 0 trits.
+   */
+  public static String trytes(int[] trits, int offset, int length) {
+    byte[] ascii = new byte[tryteLength(length)];
+    encode(trits, offset, length, ascii, 0);
+    return new String(ascii, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Encodes {@code length} trits starting at {@code offset} as ASCII trytes into {@code trytes}; a trailing partial
+   * tryte is padded with 0 trits.
+   *
+   * @return the number of trytes written
+   */
+  public static int encode(int[] trits, int offset, int length, byte[] trytes, int tryteOffset) {
+    final int whole = length / TRITS_PER_TRYTE;
+    for (int i = 0; i < whole; i++) {
+      final int t = offset + i * TRITS_PER_TRYTE;
+      trytes[tryteOffset + i] = CHAR_OF_TRITS[(trits[t] + 1) + 3 * (trits[t + 1] + 1) + 9 * (trits[t + 2] + 1)];
+    }
+
+    final int remaining = length - whole * TRITS_PER_TRYTE;
+    if (remaining == 0) {
+      return whole;
+    }
+    final int t = offset + whole * TRITS_PER_TRYTE;
+    trytes[tryteOffset + whole] = CHAR_OF_TRITS[(trits[t] + 1) + 3 * ((remaining > 1 ? trits[t + 1] : 0) + 1) + 9];
+    return whole + 1;
+  }
+
+  /**
+   * @return the number of trytes needed for {@code tritLength} trits
+   */
+  public static int tryteLength(int tritLength) {
+    return (tritLength + TRITS_PER_TRYTE - 1) / TRITS_PER_TRYTE;
+  }
+}
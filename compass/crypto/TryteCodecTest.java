@@ -0,0 +1,81 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass.crypto;
+
+import org.iota.jota.utils.Converter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Verifies the tryte codec against jota's converter.
+ */
+@RunWith(JUnit4.class)
+public class TryteCodecTest {
+
+  private final Random random = new Random(1);
+
+  private String randomTrytes(int length) {
+    StringBuilder trytes = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      trytes.append(TryteCodec.TRYTE_ALPHABET.charAt(random.nextInt(TryteCodec.TRYTE_ALPHABET.length())));
+    }
+    return trytes.toString();
+  }
+
+  @Test
+  public void matchesJota() {
+    String trytes = randomTrytes(2673);
+    int[] trits = Converter.trits(trytes);
+
+    Assert.assertArrayEquals(trits, TryteCodec.trits(trytes));
+    Assert.assertEquals(trytes, TryteCodec.trytes(trits));
+
+    int[] decoded = new int[trits.length];
+    TryteCodec.decode(trytes.getBytes(StandardCharsets.US_ASCII), 0, trytes.length(), decoded, 0);
+    Assert.assertArrayEquals(trits, decoded);
+
+    byte[] encoded = new byte[trytes.length()];
+    Assert.assertEquals(trytes.length(), TryteCodec.encode(trits, 0, trits.length, encoded, 0));
+    Assert.assertEquals(trytes, new String(encoded, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void padsPartialTrytes() {
+    Assert.assertEquals("A", TryteCodec.trytes(new int[]{1}));
+    Assert.assertEquals("Z", TryteCodec.trytes(new int[]{-1}));
+    Assert.assertEquals("C", TryteCodec.trytes(new int[]{0, 1}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidTrytes() {
+    TryteCodec.trits("ABc");
+  }
+}
@@ -0,0 +1,11 @@
+package org.iota.compass.exceptions;
+
+/**
+ * Thrown if the Proof-of-Work for a milestone did not finish before its deadline
+ */
+public class PoWTimeoutException extends RuntimeException {
+
+    public PoWTimeoutException(String message) {
+        super(message);
+    }
+}
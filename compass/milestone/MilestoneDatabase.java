@@ -29,22 +29,24 @@ import com.google.common.base.Strings;
 import org.iota.jota.IotaPoW;
 import org.iota.jota.model.Bundle;
 import org.iota.jota.model.Transaction;
-import org.iota.jota.pow.ICurl;
 import org.iota.jota.pow.SpongeFactory;
-import org.iota.jota.pow.pearldiver.PearlDiverLocalPoW;
 import org.iota.jota.utils.Converter;
 import org.iota.compass.crypto.*;
+import org.iota.compass.exceptions.PoWTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -57,38 +59,51 @@ public class MilestoneDatabase extends MilestoneSource {
   private static final int SIGNATURE_LENGTH = 27 * 81;
   private static final int OFFSET = (ISS.FRAGMENT_LENGTH / 3);
   private static final int LENGTH = (243 + 81 + 81 + 27 + 27 + 27) / 3;
+  private static final long RETRY_BACKOFF_MILLIS = 100;
+  private static final long MAX_RETRY_BACKOFF_MILLIS = 5_000;
+  private static final int FAILURES_BEFORE_LOCAL_FALLBACK = 2;
 
   private final SpongeFactory.Mode powMode;
-  private final URL powHost;
+  private final IotaPoW powProvider;
   private final SignatureSource signatureSource;
   private final String root;
   private final List<List<String>> layers;
+  private IotaPoW localPoW;
 
 
-  public MilestoneDatabase(SpongeFactory.Mode powMode, URL powHost, SignatureSource signatureSource, String path) throws IOException {
-    this(powMode, powHost, signatureSource, loadLayers(path));
+  /**
+   * @param powMode         the sponge mode used for Proof of Work
+   * @param powProvider     performs the Proof of Work in {@code powMode}; it is reused for all milestones
+   * @param signatureSource the signature source
+   * @param path            path to the folder containing the Merkle tree layers
+   * @throws IOException if the layers cannot be read
+   */
+  public MilestoneDatabase(SpongeFactory.Mode powMode, IotaPoW powProvider, SignatureSource signatureSource, String path) throws IOException {
+    this(powMode, powProvider, signatureSource, loadLayers(path));
   }
 
-  public MilestoneDatabase(SpongeFactory.Mode powMode, URL powHost, SignatureSource signatureSource, List<List<String>> layers) {
+  public MilestoneDatabase(SpongeFactory.Mode powMode, IotaPoW powProvider, SignatureSource signatureSource, List<List<String>> layers) {
     root = layers.get(0).get(0);
     this.layers = layers;
     this.signatureSource = signatureSource;
     this.powMode = powMode;
-    this.powHost = powHost;
+    this.powProvider = powProvider;
   }
 
   private static List<String> readLines(Path p, int totalSize) throws IOException {
-    BufferedReader br = new BufferedReader(new FileReader(p.toString()));
-    List<String> result = new ArrayList<>(totalSize);
-    String line;
-    do {
-        line = br.readLine();
-        if (line != null) {
-            result.add(line);
+    PackedHashes result = new PackedHashes(totalSize);
+    int count = 0;
+    try (BufferedReader br = new BufferedReader(new FileReader(p.toString()))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (count == totalSize) {
+          throw new IOException("Layer " + p + " has more than " + totalSize + " nodes");
         }
-    } while (line != null);
+        result.setTrytes(count++, line);
+      }
+    }
 
-    return result;
+    return count == totalSize ? result : result.subList(0, count);
   }
 
   private static List<List<String>> loadLayers(String path) throws IOException {
@@ -148,18 +163,6 @@ public class MilestoneDatabase extends MilestoneSource {
     return root;
   }
 
-  private IotaPoW getPoWProvider() {
-    if (powMode == SpongeFactory.Mode.KERL) {
-      return new KerlPoW();
-    } else {
-      if (powHost != null) {
-        return new RemoteCURLP81PoW(powHost);
-      } else {
-        return new PearlDiverLocalPoW();
-      }
-    }
-  }
-
   private String getTagForIndex(int index) {
     String tag;
     int[] trits = new int[15];
@@ -171,9 +174,7 @@ public class MilestoneDatabase extends MilestoneSource {
   }
 
   @Override
-  public List<Transaction> createMilestone(String trunk, String branch, int index, int mwm) {
-
-    IotaPoW pow = getPoWProvider();
+  public List<Transaction> createMilestone(String trunk, String branch, int index, int mwm, long deadlineNanos) {
 
     // Get the siblings in the current merkle tree
     List<String> leafSiblings = siblings(index, layers);
@@ -219,96 +220,188 @@ public class MilestoneDatabase extends MilestoneSource {
 
     txs.add(txSiblings);
 
-    Transaction tPoW;
     String hashToSign;
 
     //calculate the bundle hash (same for Curl & Kerl)
     String bundleHash = calculateBundleHash(txs);
     txs.forEach(tx -> tx.setBundle(bundleHash));
 
-    txSiblings.setAttachmentTimestamp(System.currentTimeMillis());
-    tPoW = new Transaction(pow.performPoW(txSiblings.toTrytes(), mwm));
-    txSiblings.setAttachmentTimestamp(tPoW.getAttachmentTimestamp());
-    txSiblings.setAttachmentTimestampLowerBound(tPoW.getAttachmentTimestampLowerBound());
-    txSiblings.setAttachmentTimestampUpperBound(tPoW.getAttachmentTimestampUpperBound());
-    txSiblings.setNonce(tPoW.getNonce());
-
     // We need to avoid the M bug we we are signing with KERL
+    final Predicate<int[]> hashFilter;
     if (signatureSource.getSignatureMode() == SpongeFactory.Mode.KERL) {
       /*
       In the case that the signature is created using KERL, we need to ensure that there exists no 'M'(=13) in the
       normalized fragment that we're signing.
        */
-      boolean hashContainsM;
-      int attempts = 0;
-      do {
-        int[] hashTrits = Hasher.hashTrytesToTrits(powMode, txSiblings.toTrytes());
-        int[] normHash = ISS.normalizedBundle(hashTrits);
-
-        hashContainsM = Arrays.stream(normHash).limit(ISS.NUMBER_OF_FRAGMENT_CHUNKS * signatureSource.getSecurity()).anyMatch(elem -> elem == 13);
-        if (hashContainsM) {
-          txSiblings.setAttachmentTimestamp(System.currentTimeMillis());
-          tPoW = new Transaction(pow.performPoW(txSiblings.toTrytes(), mwm));
-          txSiblings.setAttachmentTimestamp(tPoW.getAttachmentTimestamp());
-          txSiblings.setAttachmentTimestampLowerBound(tPoW.getAttachmentTimestampLowerBound());
-          txSiblings.setAttachmentTimestampUpperBound(tPoW.getAttachmentTimestampUpperBound());
-          txSiblings.setNonce(tPoW.getNonce());
-        }
-        attempts++;
-      } while (hashContainsM);
+      hashFilter = new KerlSignatureFilter(signatureSource.getSecurity());
+    } else {
+      hashFilter = hashTrits -> true;
+    }
 
-      log.info("KERL milestone generation took {} attempts.", attempts);
+    final List<PoWResult> powResults = new ArrayList<>();
 
+    txSiblings.setAttachmentTimestamp(System.currentTimeMillis());
+    PoWResult siblingsResult = performPoW(txSiblings, mwm, hashFilter, deadlineNanos);
+    powResults.add(siblingsResult);
+    if (signatureSource.getSignatureMode() == SpongeFactory.Mode.KERL) {
+      log.info("KERL milestone generation rejected {} PoW candidates.", siblingsResult.getRejectedCandidates());
     }
 
     hashToSign = Hasher.hashTrytes(powMode, txSiblings.toTrytes());
-    String signature = signatureSource.getSignature(index, hashToSign);
+    // A remote signature source signs while we prepare the validation of its signature
+    CompletableFuture<String> signatureFuture = signatureSource.getSignatureAsync(index, hashToSign);
     txSiblings.setHash(hashToSign);
+    int[] normalizedBundleHash = new Bundle().normalizedBundle(hashToSign);
+    int[] siblingsTrits = TryteCodec.trits(siblingsTrytes);
+
+    String signature;
+    try {
+      signature = signatureFuture.join();
+    } catch (CompletionException e) {
+      throw new RuntimeException("Signing milestone #" + index + " failed", e.getCause());
+    }
+
+    validateSignature(root, index, normalizedBundleHash, signature, siblingsTrits);
 
-    validateSignature(root, index, hashToSign, signature, siblingsTrytes);
+    // The index is signed now, so the milestone has to be issued even if it is late: giving up here would make the
+    // coordinator sign another bundle hash with the same key index, which leaks its private key.
+    chainTransactionsFillSignatures(mwm, txs, signature, powResults);
 
-    chainTransactionsFillSignatures(mwm, txs, signature);
+    long attempts = powResults.stream().mapToLong(PoWResult::getAttempts).sum();
+    long elapsedNanos = powResults.stream().mapToLong(PoWResult::getElapsedNanos).sum();
+    log.info("Milestone #{} PoW took {} ms for {} transactions ({} attempts, {} H/s).", index,
+        TimeUnit.NANOSECONDS.toMillis(elapsedNanos), powResults.size(), attempts,
+        Math.round(attempts * 1e9 / Math.max(1, elapsedNanos)));
 
     return txs;
   }
 
-  private void validateSignature(String root, int index, String hashToSign, String signature, String siblingsTrytes) {
-    int[] rootTrits = Converter.trits(root);
-    int[] signatureTrits = Converter.trits(signature);
-    int[] siblingsTrits = Converter.trits(siblingsTrytes);
-    SpongeFactory.Mode mode = signatureSource.getSignatureMode();
-
-    int[][] normalizedBundleFragments = new int[3][27];
-
-
-    {
-      int[] normalizedBundleHash = new Bundle().normalizedBundle(hashToSign);
+  /**
+   * Performs PoW on the given transaction and copies the nonce and attachment timestamps back into it.
+   * Nonces whose transaction hash is rejected by {@code hashFilter} are skipped. Providers that implement
+   * {@link FilteringPoW} do this within a single search, for all others the whole PoW is repeated.
+   *
+   * @param tx            the transaction to attach
+   * @param mwm           the minimum weight magnitude
+   * @param hashFilter    accepts or rejects the resulting transaction hash
+   * @param deadlineNanos the {@link System#nanoTime()} by which the PoW has to be done
+   * @return the telemetry of the search
+   * @throws PoWTimeoutException if the deadline passed
+   */
+  private PoWResult performPoW(Transaction tx, int mwm, Predicate<int[]> hashFilter, long deadlineNanos) {
+    return performPoW(powProvider, tx, mwm, hashFilter, deadlineNanos);
+  }
 
-      // Split hash into 3 fragments
-      for (int i = 0; i < 3; i++) {
-        normalizedBundleFragments[i] = Arrays.copyOfRange(normalizedBundleHash, i * 27, (i + 1) * 27);
+  private PoWResult performPoW(IotaPoW powProvider, Transaction tx, int mwm, Predicate<int[]> hashFilter,
+                               long deadlineNanos) {
+    final PoWResult result;
+
+    if (powProvider instanceof FilteringPoW) {
+      result = ((FilteringPoW) powProvider).performPoW(tx.toTrytes(), mwm, hashFilter, deadlineNanos);
+      switch (result.getOutcome()) {
+        case FOUND:
+          break;
+        case DEADLINE_EXCEEDED:
+          throw new PoWTimeoutException("PoW for transaction with MWM: " + mwm + " missed the deadline: " + result);
+        default:
+          throw new RuntimeException("PoW failed for transaction with MWM: " + mwm + ": " + result);
+      }
+    } else {
+      // Foreign providers can't be interrupted, so we can only give up between attempts
+      final long start = System.nanoTime();
+      long rejectedCandidates = 0;
+      String trytes = powProvider.performPoW(tx.toTrytes(), mwm);
+      while (!hashFilter.test(Hasher.hashTrytesToTrits(powMode, trytes))) {
+        if (System.nanoTime() - deadlineNanos >= 0) {
+          throw new PoWTimeoutException("PoW for transaction with MWM: " + mwm + " missed the deadline");
+        }
+        rejectedCandidates++;
+        tx.setAttachmentTimestamp(System.currentTimeMillis());
+        trytes = powProvider.performPoW(tx.toTrytes(), mwm);
       }
+      result = PoWResult.found(trytes, rejectedCandidates, 0, System.nanoTime() - start);
     }
 
-    // Get digests
+    Transaction tPoW = new Transaction(result.getTrytes());
+    tx.setAttachmentTimestamp(tPoW.getAttachmentTimestamp());
+    tx.setAttachmentTimestampLowerBound(tPoW.getAttachmentTimestampLowerBound());
+    tx.setAttachmentTimestampUpperBound(tPoW.getAttachmentTimestampUpperBound());
+    tx.setNonce(tPoW.getNonce());
+    return result;
+  }
+
+  private void validateSignature(String root, int index, int[] normalizedBundleHash, String signature,
+                                 int[] siblingsTrits) {
+    int[] rootTrits = TryteCodec.trits(root);
+    int[] signatureTrits = TryteCodec.trits(signature);
+    SpongeFactory.Mode mode = signatureSource.getSignatureMode();
+
+    // Get digests, one fragment per thread
     int[] digests = new int[signatureSource.getSecurity() * HASH_LENGTH];
-    for (int i = 0; i < signatureSource.getSecurity(); i++) {
-      int[] digestBuffer = ISS.digest(mode, normalizedBundleFragments[i % 3], Arrays.copyOfRange(signatureTrits, i * ISS.FRAGMENT_LENGTH, (i + 1) * ISS.FRAGMENT_LENGTH));
-      System.arraycopy(digestBuffer, 0, digests, i * HASH_LENGTH, HASH_LENGTH);
-    }
+    ParallelISS.digests(mode, normalizedBundleHash,
+        Arrays.copyOf(signatureTrits, signatureSource.getSecurity() * ISS.FRAGMENT_LENGTH), digests);
     int[] addressTrits = ISS.address(mode, digests);
 
     int[] calculatedRootTrits = ISS.getMerkleRoot(mode, addressTrits, siblingsTrits,
         0, index, siblingsTrits.length / HASH_LENGTH);
 
     if (!Arrays.equals(rootTrits, calculatedRootTrits)) {
-      String msg = "Calculated root does not match expected! Aborting. " + root + " :: " + Converter.trytes(calculatedRootTrits);
+      String msg = "Calculated root does not match expected! Aborting. " + root + " :: " + TryteCodec.trytes(calculatedRootTrits);
       log.error(msg);
       throw new RuntimeException(msg);
     }
   }
 
-  private void chainTransactionsFillSignatures(int mwm, List<Transaction> txs, String signature) {
+  /**
+   * Performs PoW on a transaction of an already signed milestone. Giving up here would make the coordinator sign the
+   * index again, so every failure is retried with backoff, on a local provider once {@code powProvider} failed
+   * repeatedly. An interrupt is deferred until the PoW is done, so this only returns once a nonce is found.
+   */
+  private PoWResult performPoWAfterSigning(Transaction tx, int mwm) {
+    boolean interrupted = false;
+    try {
+      for (int failures = 0; ; failures++) {
+        interrupted |= Thread.interrupted();
+        IotaPoW provider = failures < FAILURES_BEFORE_LOCAL_FALLBACK ? powProvider : localPoW();
+        try {
+          return performPoW(provider, tx, mwm, hashTrits -> true,
+              System.nanoTime() + FilteringPoW.DEFAULT_TIMEOUT_NANOS);
+        } catch (RuntimeException e) {
+          log.warn("PoW of a signed milestone transaction failed {} times, searching again: {}", failures + 1,
+              e.getMessage());
+        }
+
+        try {
+          Thread.sleep(Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(failures, 16)));
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return the provider to fall back to when {@code powProvider} keeps failing after signing; that is
+   * {@code powProvider} itself if it already searches locally
+   */
+  private synchronized IotaPoW localPoW() {
+    if (localPoW == null) {
+      if (powProvider instanceof LocalCURLP81PoW || powProvider instanceof KerlPoW) {
+        localPoW = powProvider;
+      } else {
+        log.warn("Falling back to local {} PoW for signed milestones.", powMode);
+        localPoW = powMode == SpongeFactory.Mode.KERL ? new KerlPoW() : new LocalCURLP81PoW();
+      }
+    }
+    return localPoW;
+  }
+
+  private void chainTransactionsFillSignatures(int mwm, List<Transaction> txs, String signature,
+                                               List<PoWResult> powResults) {
     //to chain transactions we start from the LastIndex and move towards index 0.
     Collections.reverse(txs);
 
@@ -323,11 +416,7 @@ public class MilestoneDatabase extends MilestoneSource {
       tx.setTrunkTransaction(prevHash);
 
       //perform PoW
-      Transaction tPoW = new Transaction(getPoWProvider().performPoW(tx.toTrytes(), mwm));
-      tx.setAttachmentTimestamp(tPoW.getAttachmentTimestamp());
-      tx.setAttachmentTimestampLowerBound(tPoW.getAttachmentTimestampLowerBound());
-      tx.setAttachmentTimestampUpperBound(tPoW.getAttachmentTimestampUpperBound());
-      tx.setNonce(tPoW.getNonce());
+      powResults.add(performPoWAfterSigning(tx, mwm));
       tx.setHash(Hasher.hashTrytes(powMode, tx.toTrytes()));
     });
 
@@ -336,15 +425,15 @@ public class MilestoneDatabase extends MilestoneSource {
 
   private String calculateBundleHash(List<Transaction> txs) {
 
-    ICurl sponge = SpongeFactory.create(SpongeFactory.Mode.KERL);
+    Sponge sponge = Sponges.forThread(SpongeFactory.Mode.KERL);
 
     for (Transaction tx : txs) {
-      sponge.absorb(Converter.trits(tx.toTrytes().substring(OFFSET, OFFSET + LENGTH)));
+      Hasher.absorbTrytes(sponge, tx.toTrytes(), OFFSET, LENGTH);
     }
 
     int[] bundleHashTrits = new int[HASH_LENGTH];
     sponge.squeeze(bundleHashTrits, 0, HASH_LENGTH);
 
-    return Converter.trytes(bundleHashTrits, 0, HASH_LENGTH);
+    return TryteCodec.trytes(bundleHashTrits, 0, HASH_LENGTH);
   }
 }
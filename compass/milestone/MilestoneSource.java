@@ -26,6 +26,8 @@
 package org.iota.compass;
 
 import com.google.common.base.Strings;
+import org.iota.compass.crypto.FilteringPoW;
+import org.iota.compass.exceptions.PoWTimeoutException;
 import org.iota.jota.model.Transaction;
 import org.iota.jota.pow.SpongeFactory;
 
@@ -46,5 +48,16 @@ public abstract class MilestoneSource {
    */
   public abstract SpongeFactory.Mode getPoWMode();
 
-  public abstract List<Transaction> createMilestone(String trunk, String branch, int index, int mwm);
+  /**
+   * Creates a milestone, giving up if {@code deadlineNanos} passes before the milestone is signed. Once the index is
+   * signed the milestone is always finished, even if it is late, so that an index is never signed twice.
+   *
+   * @param deadlineNanos the {@link System#nanoTime()} by which the milestone has to be ready
+   * @throws PoWTimeoutException if the PoW before signing did not finish before the deadline
+   */
+  public abstract List<Transaction> createMilestone(String trunk, String branch, int index, int mwm, long deadlineNanos);
+
+  public List<Transaction> createMilestone(String trunk, String branch, int index, int mwm) {
+    return createMilestone(trunk, branch, index, mwm, System.nanoTime() + FilteringPoW.DEFAULT_TIMEOUT_NANOS);
+  }
 }
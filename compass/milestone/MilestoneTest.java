@@ -26,23 +26,34 @@
 package org.iota.compass;
 
 import com.google.common.base.Strings;
+import org.iota.jota.IotaPoW;
 import org.iota.jota.model.Transaction;
 import org.iota.jota.pow.SpongeFactory;
 import org.iota.jota.utils.Converter;
+import org.iota.compass.conf.BaseConfiguration;
 import org.iota.compass.conf.LayersCalculatorConfiguration;
+import org.iota.compass.conf.PoWServerConfiguration;
 import org.iota.compass.conf.SignatureSourceServerConfiguration;
+import org.iota.compass.crypto.FilteringPoW;
 import org.iota.compass.crypto.Hasher;
 import org.iota.compass.crypto.ISS;
+import org.iota.compass.crypto.LocalCURLP81PoW;
+import org.iota.compass.crypto.PoWResult;
+import org.iota.compass.exceptions.PoWTimeoutException;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.iota.jota.pow.SpongeFactory.Mode.*;
@@ -53,7 +64,16 @@ import static org.iota.jota.pow.SpongeFactory.Mode.*;
 @RunWith(JUnit4.class)
 public class MilestoneTest {
 
-  private void runForMode(SpongeFactory.Mode powMode, URL powHost, SignatureSource signatureSource) {
+  private void runForMode(SpongeFactory.Mode powMode, URL powHost, SignatureSource signatureSource) throws SSLException {
+    final BaseConfiguration powConfig = new BaseConfiguration();
+    powConfig.powMode = powMode;
+    if (powHost != null) {
+      powConfig.powHost.add(powHost);
+    }
+    runWithPoWProvider(powMode, PoWProviderHelper.powProviderFromConfig(powConfig), signatureSource);
+  }
+
+  private void runWithPoWProvider(SpongeFactory.Mode powMode, IotaPoW powProvider, SignatureSource signatureSource) {
     final int depth = 4;
     final int MWM = 4;
 
@@ -65,7 +85,7 @@ public class MilestoneTest {
 
     final List<String> addresses = layersCalculator.calculateAllAddresses();
     final List<List<String>> layers = layersCalculator.calculateAllLayers(addresses);
-    final MilestoneDatabase db = new MilestoneDatabase(powMode, powHost, signatureSource, layers);
+    final MilestoneDatabase db = new MilestoneDatabase(powMode, powProvider, signatureSource, layers);
 
     for (int i = 0; i < (1 << depth); i++) {
       final List<Transaction> txs = db.createMilestone(TestUtil.nextSeed(), TestUtil.nextSeed(), i, MWM);
@@ -99,6 +119,138 @@ public class MilestoneTest {
     }
   }
 
+  /**
+   * @return a signature source that records every signed index in {@code signedHashes} and fails on a second,
+   * different bundle hash for it
+   */
+  private static SignatureSource recordingSource(Map<Long, String> signedHashes) {
+    final SignatureSource inMemory = new InMemorySignatureSource(CURLP27, TestUtil.nextSeed(), 1);
+    return new SignatureSource() {
+      @Override
+      public String getSignature(long index, String bundleHash) {
+        String previous = signedHashes.putIfAbsent(index, bundleHash);
+        Assert.assertTrue("Index " + index + " was signed twice", previous == null || previous.equals(bundleHash));
+        return inMemory.getSignature(index, bundleHash);
+      }
+
+      @Override
+      public int getSecurity() {
+        return inMemory.getSecurity();
+      }
+
+      @Override
+      public SpongeFactory.Mode getSignatureMode() {
+        return inMemory.getSignatureMode();
+      }
+
+      @Override
+      public String getAddress(long index) {
+        return inMemory.getAddress(index);
+      }
+    };
+  }
+
+  private static MilestoneDatabase database(int depth, IotaPoW powProvider, SignatureSource signatureSource) {
+    final LayersCalculatorConfiguration layersConfig = new LayersCalculatorConfiguration();
+    layersConfig.depth = depth;
+    final LayersCalculator layersCalculator = new LayersCalculator(layersConfig, signatureSource);
+    final List<List<String>> layers = layersCalculator.calculateAllLayers(layersCalculator.calculateAllAddresses());
+    return new MilestoneDatabase(CURLP81, powProvider, signatureSource, layers);
+  }
+
+  @Test
+  public void neverSignsAnIndexTwice() {
+    final int depth = 2;
+    final int MWM = 4;
+
+    final Map<Long, String> signedHashes = new HashMap<>();
+    final SignatureSource signatureSource = recordingSource(signedHashes);
+
+    // Every other search misses its deadline: first the siblings PoW before signing, then the PoW of the signature
+    // transaction after signing
+    final LocalCURLP81PoW localPoW = new LocalCURLP81PoW();
+    final int[] searches = {0};
+    final int[] missedAfterSigning = {0};
+    final FilteringPoW powProvider = new FilteringPoW() {
+      @Override
+      public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+        if (searches[0]++ % 2 == 0) {
+          if (new Transaction(trytes).getCurrentIndex() < signatureSource.getSecurity()) {
+            missedAfterSigning[0]++;
+          }
+          return PoWResult.notFound(PoWResult.Outcome.DEADLINE_EXCEEDED, 0, 0, 0);
+        }
+        return localPoW.performPoW(trytes, minWeightMagnitude, hashFilter, deadlineNanos);
+      }
+
+      @Override
+      public String performPoW(String trytes, int minWeightMagnitude) {
+        return performPoW(trytes, minWeightMagnitude, hashTrits -> true).getTrytes();
+      }
+    };
+
+    final MilestoneDatabase db = database(depth, powProvider, signatureSource);
+
+    for (int index = 0; index < (1 << depth); index++) {
+      // Like the coordinator, start over with new tips if the milestone missed its deadline
+      while (true) {
+        try {
+          List<Transaction> txs = db.createMilestone(TestUtil.nextSeed(), TestUtil.nextSeed(), index, MWM);
+          Assert.assertEquals(signedHashes.get((long) index), txs.get(txs.size() - 1).getHash());
+          break;
+        } catch (PoWTimeoutException e) {
+          Assert.assertFalse("Gave up on signed milestone #" + index, signedHashes.containsKey((long) index));
+        }
+      }
+    }
+
+    Assert.assertEquals(1 << depth, signedHashes.size());
+    Assert.assertEquals(1 << depth, missedAfterSigning[0]);
+  }
+
+  @Test
+  public void finishesSignedMilestonesWhenThePoWProviderFails() {
+    final int depth = 1;
+    final int MWM = 4;
+
+    final Map<Long, String> signedHashes = new HashMap<>();
+    final SignatureSource signatureSource = recordingSource(signedHashes);
+
+    // Like a remote provider whose hosts all went down right after the siblings PoW
+    final LocalCURLP81PoW localPoW = new LocalCURLP81PoW();
+    final int[] failedAfterSigning = {0};
+    final FilteringPoW powProvider = new FilteringPoW() {
+      @Override
+      public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+        if (new Transaction(trytes).getCurrentIndex() < signatureSource.getSecurity()) {
+          return PoWResult.notFound(failedAfterSigning[0]++ % 2 == 0 ? PoWResult.Outcome.CANCELLED
+              : PoWResult.Outcome.FAILED, 0, 0, 0);
+        }
+        return localPoW.performPoW(trytes, minWeightMagnitude, hashFilter, deadlineNanos);
+      }
+
+      @Override
+      public String performPoW(String trytes, int minWeightMagnitude) {
+        return performPoW(trytes, minWeightMagnitude, hashTrits -> true).getTrytes();
+      }
+    };
+
+    final MilestoneDatabase db = database(depth, powProvider, signatureSource);
+    for (int index = 0; index < (1 << depth); index++) {
+      List<Transaction> txs = db.createMilestone(TestUtil.nextSeed(), TestUtil.nextSeed(), index, MWM);
+      Assert.assertEquals(signedHashes.get((long) index), txs.get(txs.size() - 1).getHash());
+      for (Transaction tx : txs) {
+        int[] hash = Hasher.hashTrytesToTrits(CURLP81, tx.toTrytes());
+        for (int i = hash.length - MWM; i < hash.length; i++) {
+          Assert.assertEquals("MWM of transaction " + tx.getCurrentIndex(), 0, hash[i]);
+        }
+      }
+    }
+
+    // Every signature transaction was given up on by the provider before the local fallback took over
+    Assert.assertEquals(2 * (1 << depth), failedAfterSigning[0]);
+  }
+
   @Test
   public void runRemoteTest() throws IOException {
     int port = new Random().nextInt(14436) + 51200;
@@ -123,7 +275,29 @@ public class MilestoneTest {
   }
 
   @Test
-  public void runTests() {
+  public void runRemotePoWTest() throws IOException {
+    int port = new Random().nextInt(14436) + 51200;
+
+    PoWServerConfiguration config = new PoWServerConfiguration();
+    config.port = port;
+    config.plaintext = true;
+
+    PoWServer server = new PoWServer(config);
+    server.start();
+
+    SignatureSource source = new InMemorySignatureSource(KERL, TestUtil.nextSeed(), 2);
+    for (SpongeFactory.Mode powMode : new SpongeFactory.Mode[]{CURLP81, KERL}) {
+      RemotePoW powProvider = new RemotePoW("localhost:" + port, powMode);
+      runWithPoWProvider(powMode, powProvider, source);
+      Assert.assertTrue(powProvider.getStatus().getCompletedRequests() > 0);
+      powProvider.shutdown();
+    }
+
+    server.stop();
+  }
+
+  @Test
+  public void runTests() throws SSLException {
     int from = 1, to = 3;
     SpongeFactory.Mode[] powModes = new SpongeFactory.Mode[]{
         // Jota's LocalPoWProvider only supports CURLP81
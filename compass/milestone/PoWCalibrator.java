@@ -0,0 +1,251 @@
+package org.iota.compass;
+
+import org.iota.compass.conf.BaseConfiguration;
+import org.iota.compass.conf.PoWCalibration;
+import org.iota.compass.crypto.FilteringPoW;
+import org.iota.compass.crypto.HedgedPoW;
+import org.iota.compass.crypto.KerlPoW;
+import org.iota.compass.crypto.LocalCURLP81PoW;
+import org.iota.compass.crypto.PoWResult;
+import org.iota.compass.crypto.RemoteCURLP81PoW;
+import org.iota.jota.IotaPoW;
+import org.iota.jota.pow.SpongeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks every PoW provider that is available with the given configuration and picks the fastest one.
+ * <p>
+ * Search times are roughly geometric, so a few searches say little about a provider. If every candidate counts its
+ * attempts, they are ranked by hash rate instead. Otherwise all are ranked by their measured mean search time, and
+ * providers that don't count their attempts search for a fixed time budget to average out the noise.
+ * The result is persisted and reused as long as the PoW configuration and the number of processors don't change.
+ */
+public class PoWCalibrator {
+  private static final Logger log = LoggerFactory.getLogger(PoWCalibrator.class);
+
+  private static final int ROUNDS = 3;
+  private static final int MAX_ROUNDS = 50;
+  private static final long TIME_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(30);
+  private static final int WARMUP_MWM = 5;
+  private static final long ROUND_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+  private static final int[] KERL_LANES = {2, 4, 8};
+
+  private static final String TRYTE_ALPHABET = "9ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+  private static final int SIGNATURE_LENGTH = 27 * 81;
+  private static final int TRANSACTION_LENGTH = 2673;
+
+  private interface ProviderFactory {
+    IotaPoW create() throws SSLException;
+  }
+
+  private static final class Benchmark {
+    // Measured mean time of a PoW
+    final double meanMillis;
+    // 0 if the provider doesn't count its attempts
+    final double hashesPerMilli;
+
+    Benchmark(double meanMillis, double hashesPerMilli) {
+      this.meanMillis = meanMillis;
+      this.hashesPerMilli = hashesPerMilli;
+    }
+  }
+
+  /**
+   * Returns the fastest PoW provider for {@code config}, running the benchmark unless a matching calibration is
+   * stored at {@code calibrationPath}.
+   */
+  public static IotaPoW calibratedProvider(BaseConfiguration config, String calibrationPath) throws IOException {
+    final Map<String, ProviderFactory> candidates = candidates(config);
+    final String fingerprint = fingerprint(config);
+
+    PoWCalibration calibration = loadCalibration(calibrationPath);
+    if (calibration != null && fingerprint.equals(calibration.fingerprint) && candidates.containsKey(calibration.provider)) {
+      log.info("Using calibrated PoW provider '{}' ({} ms per PoW).", calibration.provider,
+          Math.round(calibration.expectedMillis));
+      return candidates.get(calibration.provider).create();
+    }
+
+    log.info("Calibrating {} PoW at MWM {} with {} candidates.", config.powMode, config.MWM, candidates.size());
+    final Map<String, IotaPoW> providers = new LinkedHashMap<>();
+    final Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+    for (Map.Entry<String, ProviderFactory> candidate : candidates.entrySet()) {
+      IotaPoW provider = candidate.getValue().create();
+      Benchmark benchmark = benchmark(provider, config.MWM);
+      if (benchmark == null) {
+        log.info("PoW provider '{}': failed.", candidate.getKey());
+        release(provider);
+        continue;
+      }
+
+      log.info("PoW provider '{}': {} ms per PoW, {} hashes per ms.", candidate.getKey(),
+          Math.round(benchmark.meanMillis), benchmark.hashesPerMilli > 0 ? Math.round(benchmark.hashesPerMilli) : "?");
+      providers.put(candidate.getKey(), provider);
+      benchmarks.put(candidate.getKey(), benchmark);
+    }
+
+    if (benchmarks.isEmpty()) {
+      throw new RuntimeException("PoW calibration failed, no provider finished the benchmark.");
+    }
+
+    // On average 3^mwm hashes are needed to find a nonce
+    final boolean rankByHashRate = benchmarks.values().stream().allMatch(b -> b.hashesPerMilli > 0);
+    String fastest = null;
+    double fastestMillis = Double.POSITIVE_INFINITY;
+    for (Map.Entry<String, Benchmark> benchmark : benchmarks.entrySet()) {
+      double millis = rankByHashRate
+          ? Math.pow(3, config.MWM) / benchmark.getValue().hashesPerMilli
+          : benchmark.getValue().meanMillis;
+      if (millis < fastestMillis) {
+        fastest = benchmark.getKey();
+        fastestMillis = millis;
+      }
+    }
+    for (Map.Entry<String, IotaPoW> provider : providers.entrySet()) {
+      if (!provider.getKey().equals(fastest)) {
+        release(provider.getValue());
+      }
+    }
+
+    calibration = new PoWCalibration();
+    calibration.fingerprint = fingerprint;
+    calibration.provider = fastest;
+    calibration.expectedMillis = fastestMillis;
+    calibration.calibratedAt = System.currentTimeMillis();
+    storeCalibration(calibration, calibrationPath);
+
+    log.info("Selected PoW provider '{}' by {}.", fastest, rankByHashRate ? "hash rate" : "mean search time");
+    return providers.get(fastest);
+  }
+
+  private static Map<String, ProviderFactory> candidates(BaseConfiguration config) {
+    final Map<String, ProviderFactory> candidates = new LinkedHashMap<>();
+
+    if (config.powMode == SpongeFactory.Mode.KERL) {
+      candidates.put("local", () -> new KerlPoW(config.powThreads, 1));
+      for (int lanes : KERL_LANES) {
+        candidates.put("local-lanes-" + lanes, () -> new KerlPoW(config.powThreads, lanes));
+      }
+    } else {
+      candidates.put("local", () -> new LocalCURLP81PoW(config.powThreads));
+      if (!config.powHost.isEmpty()) {
+        candidates.put("powHost", () -> new RemoteCURLP81PoW(config.powHost));
+        if (config.powHedgeDelay >= 0) {
+          candidates.put("hedged", () -> new HedgedPoW(new RemoteCURLP81PoW(config.powHost),
+              new LocalCURLP81PoW(config.powThreads), config.powHedgeDelay));
+        }
+      }
+    }
+
+    if (config.powServer != null) {
+      candidates.put("powServer", () -> PoWProviderHelper.powServerFromConfig(config));
+    }
+    return candidates;
+  }
+
+  private static String fingerprint(BaseConfiguration config) {
+    return String.join("|",
+        "mode=" + config.powMode,
+        "mwm=" + config.MWM,
+        "threads=" + config.powThreads,
+        "processors=" + Runtime.getRuntime().availableProcessors(),
+        "hosts=" + config.powHost,
+        "hedgeDelay=" + config.powHedgeDelay,
+        "server=" + config.powServer);
+  }
+
+  /**
+   * Searches {@link #ROUNDS} times, or until {@link #TIME_BUDGET_NANOS} are used up if the provider doesn't count its
+   * attempts.
+   *
+   * @return the measured figures, or null if the provider failed
+   */
+  private static Benchmark benchmark(IotaPoW provider, int mwm) {
+    final Random random = new SecureRandom();
+
+    // Let the JIT compile the search and the remote side open its connections
+    if (runOnce(provider, randomTransaction(random), Math.min(mwm, WARMUP_MWM)) == null) {
+      return null;
+    }
+
+    long attempts = 0;
+    long elapsedNanos = 0;
+    boolean attemptsKnown = true;
+    int rounds = 0;
+    while (rounds < ROUNDS || (!attemptsKnown && elapsedNanos < TIME_BUDGET_NANOS && rounds < MAX_ROUNDS)) {
+      PoWResult result = runOnce(provider, randomTransaction(random), mwm);
+      if (result == null) {
+        return null;
+      }
+      attempts += result.getAttempts();
+      elapsedNanos += result.getElapsedNanos();
+      attemptsKnown &= result.getAttempts() > 0;
+      rounds++;
+    }
+
+    return new Benchmark(elapsedNanos / 1e6 / rounds, attemptsKnown ? attempts * 1e6 / elapsedNanos : 0);
+  }
+
+  private static PoWResult runOnce(IotaPoW provider, String trytes, int mwm) {
+    final long start = System.nanoTime();
+    try {
+      if (provider instanceof FilteringPoW) {
+        PoWResult result = ((FilteringPoW) provider).performPoW(trytes, mwm, hashTrits -> true, start + ROUND_TIMEOUT_NANOS);
+        return result.isFound() ? result : null;
+      }
+
+      String result = provider.performPoW(trytes, mwm);
+      return result == null ? null : PoWResult.found(result, 0, 0, System.nanoTime() - start);
+    } catch (RuntimeException e) {
+      log.warn("PoW benchmark failed.", e);
+      return null;
+    }
+  }
+
+  /**
+   * @return a zero-value transaction with a random message, so that every round searches from a different hash
+   */
+  private static String randomTransaction(Random random) {
+    StringBuilder trytes = new StringBuilder(TRANSACTION_LENGTH);
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      trytes.append(TRYTE_ALPHABET.charAt(random.nextInt(TRYTE_ALPHABET.length())));
+    }
+    while (trytes.length() < TRANSACTION_LENGTH) {
+      trytes.append('9');
+    }
+    return trytes.toString();
+  }
+
+  private static void release(IotaPoW provider) {
+    if (provider instanceof RemotePoW) {
+      ((RemotePoW) provider).shutdown();
+    }
+  }
+
+  private static PoWCalibration loadCalibration(String path) {
+    if (!new File(path).exists()) {
+      return null;
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path))) {
+      return (PoWCalibration) ois.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      log.warn("Ignoring unreadable PoW calibration file '{}'.", path, e);
+      return null;
+    }
+  }
+
+  private static void storeCalibration(PoWCalibration calibration, String path) throws IOException {
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(path))) {
+      oos.writeObject(calibration);
+      log.info("Stored PoW calibration in '{}'.", path);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package org.iota.compass;
+
+import org.iota.compass.conf.BaseConfiguration;
+import org.iota.compass.crypto.HedgedPoW;
+import org.iota.compass.crypto.KerlPoW;
+import org.iota.compass.crypto.LocalCURLP81PoW;
+import org.iota.compass.crypto.RemoteCURLP81PoW;
+import org.iota.jota.IotaPoW;
+import org.iota.jota.pow.SpongeFactory;
+
+import javax.net.ssl.SSLException;
+
+public class PoWProviderHelper {
+  /**
+   * Creates the Proof-of-Work provider described by the given configuration.
+   * Providers may hold long-lived resources such as worker pools and should be reused for all milestones.
+   *
+   * @param config the configuration
+   * @return a PoW provider for {@code config.powMode}
+   * @throws SSLException if the TLS connection to the PoW server cannot be set up
+   */
+  public static IotaPoW powProviderFromConfig(BaseConfiguration config) throws SSLException {
+    if (config.powServer != null) {
+      return powServerFromConfig(config);
+    }
+
+    if (config.powMode == SpongeFactory.Mode.KERL) {
+      return new KerlPoW(config.powThreads, config.powLanes);
+    }
+
+    if (!config.powHost.isEmpty()) {
+      RemoteCURLP81PoW remote = new RemoteCURLP81PoW(config.powHost);
+      if (config.powHedgeDelay >= 0) {
+        return new HedgedPoW(remote, new LocalCURLP81PoW(config.powThreads), config.powHedgeDelay);
+      }
+      return remote;
+    }
+
+    return new LocalCURLP81PoW(config.powThreads);
+  }
+
+  static RemotePoW powServerFromConfig(BaseConfiguration config) throws SSLException {
+    if (config.powServerPlaintext) {
+      return new RemotePoW(config.powServer, config.powMode);
+    }
+    return new RemotePoW(config.powServer, config.powMode, config.powServerTrustCertCollection,
+        config.powServerClientCertChain, config.powServerClientKey);
+  }
+}
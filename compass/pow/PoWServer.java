@@ -0,0 +1,264 @@
+package org.iota.compass;
+
+import com.beust.jcommander.JCommander;
+import io.grpc.Context;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import org.iota.compass.conf.PoWServerConfiguration;
+import org.iota.compass.crypto.FilteringPoW;
+import org.iota.compass.crypto.KerlPoW;
+import org.iota.compass.crypto.KerlSignatureFilter;
+import org.iota.compass.crypto.LocalCURLP81PoW;
+import org.iota.compass.crypto.PoWResult;
+import org.iota.compass.crypto.TryteCodec;
+import org.iota.compass.proto.*;
+import org.iota.jota.pow.JCurl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Performs CURL-P81 and KERL PoW for remote coordinators.
+ * <p>
+ * Every search already uses all configured PoW threads, so requests are processed one at a time in arrival order.
+ * Up to {@code -maxQueueDepth} requests wait for their turn, further requests are rejected with
+ * {@code RESOURCE_EXHAUSTED} so that clients can fail over instead of piling up. Searches are bounded by the deadline
+ * of the call and stop when the client cancels it.
+ */
+public class PoWServer {
+  private static final Logger log = LoggerFactory.getLogger(PoWServer.class);
+  private static final int TRANSACTION_LENGTH = 2673;
+
+  private final PoWServerConfiguration config;
+  private final LocalCURLP81PoW curlPoW;
+  private final KerlPoW kerlPoW;
+  private final ThreadPoolExecutor worker;
+
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicLong completedRequests = new AtomicLong();
+
+  private Server server;
+
+  public PoWServer(PoWServerConfiguration config) {
+    this.config = config;
+    this.curlPoW = new LocalCURLP81PoW(config.powThreads);
+    this.kerlPoW = new KerlPoW(config.powThreads, config.powLanes);
+    this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, config.maxQueueDepth)), r -> {
+      Thread t = new Thread(r, "PoWServer-worker");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    PoWServerConfiguration config = new PoWServerConfiguration();
+
+    JCommander.newBuilder()
+        .addObject(config)
+        .build()
+        .parse(args);
+
+    final PoWServer server = new PoWServer(config);
+    server.start();
+    server.blockUntilShutdown();
+  }
+
+  public void start() throws IOException {
+    NettyServerBuilder builder =
+        NettyServerBuilder.forPort(config.port)
+            .addService(new PoWImpl());
+
+    if (!config.plaintext) {
+      if (config.certChain == null || config.certChain.isEmpty()) {
+        throw new IllegalArgumentException("-certChain is required if not running in plaintext mode");
+      }
+
+      if (config.privateKey == null || config.privateKey.isEmpty()) {
+        throw new IllegalArgumentException("-privateKey is required if not running in plaintext mode");
+      }
+
+      SslContextBuilder sslClientContextBuilder = SslContextBuilder.forServer(new File(config.certChain),
+          new File(config.privateKey));
+      if (config.trustCertCollection != null) {
+        sslClientContextBuilder.trustManager(new File(config.trustCertCollection));
+        sslClientContextBuilder.clientAuth(ClientAuth.REQUIRE);
+      }
+
+      builder = builder.sslContext(GrpcSslContexts.configure(sslClientContextBuilder,
+          SslProvider.OPENSSL).build());
+    }
+
+    server = builder.build();
+    server.start();
+
+    log.info("PoW server started with {} threads, listening on {}", curlPoW.getNumberOfThreads(), config.port);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      System.err.println("*** shutting down gRPC server since JVM is shutting down");
+      PoWServer.this.stop();
+      System.err.println("*** server shut down");
+    }));
+  }
+
+  public void stop() {
+    if (server != null) {
+      server.shutdown();
+    }
+    worker.shutdownNow();
+  }
+
+  public void blockUntilShutdown() throws InterruptedException {
+    if (server != null) {
+      server.awaitTermination();
+    }
+  }
+
+  private PoWResult performPoW(PerformPoWRequest request, long deadlineNanos) {
+    final Predicate<int[]> hashFilter = request.getKerlSignatureSecurity() > 0
+        ? new KerlSignatureFilter(request.getKerlSignatureSecurity())
+        : hashTrits -> true;
+
+    final FilteringPoW pow;
+    switch (request.getMode()) {
+      case POW_CURLP81:
+        pow = curlPoW;
+        break;
+      case POW_KERL:
+        pow = kerlPoW;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown PoW mode: " + request.getMode());
+    }
+
+    return pow.performPoW(request.getTrytes(), request.getMinWeightMagnitude(), hashFilter, deadlineNanos);
+  }
+
+  /**
+   * Rejects requests that no PoW provider could serve before they take a place in the queue.
+   */
+  private static void validate(PerformPoWRequest request) {
+    if (request.getMode() != PoWMode.POW_CURLP81 && request.getMode() != PoWMode.POW_KERL) {
+      throw new IllegalArgumentException("Unknown PoW mode: " + request.getMode());
+    }
+    if (request.getTrytes().length() != TRANSACTION_LENGTH) {
+      throw new IllegalArgumentException("Invalid transaction length: " + request.getTrytes().length());
+    }
+    for (int i = 0; i < request.getTrytes().length(); i++) {
+      if (TryteCodec.TRYTE_ALPHABET.indexOf(request.getTrytes().charAt(i)) < 0) {
+        throw new IllegalArgumentException("Invalid tryte at " + i);
+      }
+    }
+    if (request.getMinWeightMagnitude() < 0 || request.getMinWeightMagnitude() > JCurl.HASH_LENGTH) {
+      throw new IllegalArgumentException("Invalid min weight magnitude: " + request.getMinWeightMagnitude());
+    }
+  }
+
+  class PoWImpl extends PoWGrpc.PoWImplBase {
+
+    @Override
+    public void performPoW(PerformPoWRequest request, StreamObserver<PerformPoWResponse> responseObserver) {
+      try {
+        validate(request);
+      } catch (IllegalArgumentException e) {
+        responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        return;
+      }
+
+      final Context context = Context.current();
+      final long queuedAt = System.nanoTime();
+
+      try {
+        worker.execute(() -> {
+          if (context.isCancelled()) {
+            log.info("Skipping {} PoW request that was cancelled while queued", request.getMode());
+            return;
+          }
+
+          final long deadlineNanos = context.getDeadline() == null
+              ? System.nanoTime() + FilteringPoW.DEFAULT_TIMEOUT_NANOS
+              : System.nanoTime() + context.getDeadline().timeRemaining(TimeUnit.NANOSECONDS);
+          // Stop searching as soon as the client cancels or its deadline passes
+          final Thread workerThread = Thread.currentThread();
+          final Context.CancellationListener cancellationListener = c -> workerThread.interrupt();
+          context.addListener(cancellationListener, Runnable::run);
+
+          activeRequests.incrementAndGet();
+          try {
+            final PoWResult result = PoWServer.this.performPoW(request, deadlineNanos);
+            log.info("{} PoW with MWM {}: {} ({} ms queued)", request.getMode(), request.getMinWeightMagnitude(),
+                result, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt - result.getElapsedNanos()));
+
+            switch (result.getOutcome()) {
+              case FOUND:
+                completedRequests.incrementAndGet();
+                responseObserver.onNext(PerformPoWResponse.newBuilder()
+                    .setTrytes(result.getTrytes())
+                    .setRejectedCandidates(result.getRejectedCandidates())
+                    .setAttempts(result.getAttempts())
+                    .setElapsedNanos(result.getElapsedNanos())
+                    .build());
+                responseObserver.onCompleted();
+                break;
+              case DEADLINE_EXCEEDED:
+                responseObserver.onError(Status.DEADLINE_EXCEEDED
+                    .withDescription("No nonce found for MWM " + request.getMinWeightMagnitude() + " before the deadline")
+                    .asRuntimeException());
+                break;
+              case CANCELLED:
+                responseObserver.onError(Status.CANCELLED.withDescription("PoW was cancelled").asRuntimeException());
+                break;
+              default:
+                responseObserver.onError(Status.INTERNAL.withDescription("PoW failed").asRuntimeException());
+            }
+          } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+          } catch (RuntimeException e) {
+            log.error("PoW failed", e);
+            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+          } finally {
+            activeRequests.decrementAndGet();
+            context.removeListener(cancellationListener);
+            // Don't let a late cancellation leak into the next request
+            Thread.interrupted();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        log.warn("Rejecting {} PoW request, queue is full", request.getMode());
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+            .withDescription("PoW queue is full")
+            .asRuntimeException());
+        return;
+      }
+
+      log.debug("Queued {} PoW request, queue depth: {}", request.getMode(), worker.getQueue().size());
+    }
+
+    @Override
+    public void getStatus(GetStatusRequest request, StreamObserver<GetStatusResponse> responseObserver) {
+      responseObserver.onNext(GetStatusResponse.newBuilder()
+          .setQueueDepth(worker.getQueue().size())
+          .setActiveRequests(activeRequests.get())
+          .setCompletedRequests(completedRequests.get())
+          .setCurlp81HashRate(curlPoW.getHashRate())
+          .setKerlHashRate(kerlPoW.getHashRate())
+          .build());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package org.iota.compass;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.iota.compass.crypto.FilteringPoW;
+import org.iota.compass.crypto.Hasher;
+import org.iota.compass.crypto.IotaRemotePoW;
+import org.iota.compass.crypto.KerlSignatureFilter;
+import org.iota.compass.crypto.PoWResult;
+import org.iota.compass.proto.*;
+import org.iota.jota.pow.SpongeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.File;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Outsources CURL-P81 or KERL PoW to a {@link PoWServer}.
+ * <p>
+ * {@link KerlSignatureFilter}s are applied by the server within a single search. Any other hash filter is
+ * evaluated locally, and a rejected result is reported as a failed PoW.
+ */
+public class RemotePoW implements IotaRemotePoW, FilteringPoW {
+  private static final Logger log = LoggerFactory.getLogger(RemotePoW.class);
+  private static final String DEFAULT_CACHE_TTL = "5";
+  private static final int NONCE_LENGTH = 27;
+
+  private final SpongeFactory.Mode mode;
+  private final ManagedChannel channel;
+  private final PoWGrpc.PoWBlockingStub serviceStub;
+
+  /**
+   * Constructs a RemotePoW using an encrypted gRPC channel.
+   *
+   * @param uri                         the URI of the host to connect to
+   * @param mode                        the PoW mode, either CURLP81 or KERL
+   * @param trustCertCollectionFilePath
+   * @param clientCertChainFilePath
+   * @param clientPrivateKeyFilePath
+   * @throws SSLException
+   */
+  public RemotePoW(String uri, SpongeFactory.Mode mode,
+                   String trustCertCollectionFilePath,
+                   String clientCertChainFilePath,
+                   String clientPrivateKeyFilePath) throws SSLException {
+    this(mode, NettyChannelBuilder
+        .forTarget(uri)
+        .idleTimeout(cacheTtlSeconds() * 2, TimeUnit.SECONDS)
+        .useTransportSecurity()
+        .sslContext(buildSslContext(trustCertCollectionFilePath, clientCertChainFilePath, clientPrivateKeyFilePath)));
+  }
+
+  /**
+   * Constructs a RemotePoW using an *unencrypted* gRPC channel.
+   *
+   * @param uri  the URI of the host to connect to
+   * @param mode the PoW mode, either CURLP81 or KERL
+   */
+  public RemotePoW(String uri, SpongeFactory.Mode mode) {
+    this(mode, ManagedChannelBuilder
+        .forTarget(uri)
+        .idleTimeout(cacheTtlSeconds() * 2, TimeUnit.SECONDS)
+        .usePlaintext());
+  }
+
+  /**
+   * Constructs a RemotePoW on a channel built by {@code channelBuilder}, e.g. an in-process one.
+   *
+   * @param mode           the PoW mode, either CURLP81 or KERL
+   * @param channelBuilder builds the channel to the server
+   */
+  RemotePoW(SpongeFactory.Mode mode, ManagedChannelBuilder<?> channelBuilder) {
+    if (mode != SpongeFactory.Mode.CURLP81 && mode != SpongeFactory.Mode.KERL) {
+      throw new IllegalArgumentException("Remote PoW does not support " + mode);
+    }
+    this.mode = mode;
+    this.channel = channelBuilder.build();
+    this.serviceStub = PoWGrpc.newBlockingStub(channel);
+  }
+
+  private static int cacheTtlSeconds() {
+    String cacheTtl = Security.getProperty("networkaddress.cache.ttl");
+    if (cacheTtl == null) {
+      cacheTtl = DEFAULT_CACHE_TTL;
+    }
+    return Integer.valueOf(cacheTtl);
+  }
+
+  private static SslContext buildSslContext(
+      String trustCertCollectionFilePath,
+      String clientCertChainFilePath,
+      String clientPrivateKeyFilePath) throws SSLException {
+    SslContextBuilder builder = GrpcSslContexts.forClient();
+    if (trustCertCollectionFilePath != null) {
+      builder.trustManager(new File(trustCertCollectionFilePath));
+    }
+    if (clientCertChainFilePath != null && !clientCertChainFilePath.isEmpty()
+        && clientPrivateKeyFilePath != null && !clientPrivateKeyFilePath.isEmpty()) {
+      builder.keyManager(new File(clientCertChainFilePath), new File(clientPrivateKeyFilePath));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the queue depth, load and hash rates reported by the server
+   */
+  public GetStatusResponse getStatus() {
+    return serviceStub.getStatus(GetStatusRequest.getDefaultInstance());
+  }
+
+  public void shutdown() {
+    channel.shutdown();
+  }
+
+  @Override
+  public String performPoW(String trytes, int minWeightMagnitude) {
+    PoWResult result = performPoW(trytes, minWeightMagnitude, hashTrits -> true);
+    return result == null ? null : result.getTrytes();
+  }
+
+  @Override
+  public PoWResult performPoW(String trytes, int minWeightMagnitude, Predicate<int[]> hashFilter, long deadlineNanos) {
+    PerformPoWRequest.Builder request = PerformPoWRequest.newBuilder()
+        .setMode(mode == SpongeFactory.Mode.KERL ? PoWMode.POW_KERL : PoWMode.POW_CURLP81)
+        .setMinWeightMagnitude(minWeightMagnitude)
+        .setTrytes(trytes);
+    if (hashFilter instanceof KerlSignatureFilter) {
+      request.setKerlSignatureSecurity(((KerlSignatureFilter) hashFilter).getSecurity());
+    }
+
+    final long start = System.nanoTime();
+    PerformPoWResponse response;
+    try {
+      // The deadline includes the time our request waits behind those of other coordinators
+      response = serviceStub
+          .withDeadlineAfter(deadlineNanos - start, TimeUnit.NANOSECONDS)
+          .performPoW(request.build());
+    } catch (StatusRuntimeException e) {
+      log.error("Remote PoW with MWM {} failed: {}", minWeightMagnitude, e.getStatus());
+      final PoWResult.Outcome outcome;
+      if (e.getStatus().getCode() == Status.Code.DEADLINE_EXCEEDED) {
+        outcome = PoWResult.Outcome.DEADLINE_EXCEEDED;
+      } else if (e.getStatus().getCode() == Status.Code.CANCELLED || Thread.currentThread().isInterrupted()) {
+        outcome = PoWResult.Outcome.CANCELLED;
+      } else {
+        outcome = PoWResult.Outcome.FAILED;
+      }
+      return PoWResult.notFound(outcome, 0, 0, System.nanoTime() - start);
+    }
+
+    if (!isValid(trytes, minWeightMagnitude, response.getTrytes())) {
+      return PoWResult.notFound(PoWResult.Outcome.FAILED, response.getRejectedCandidates(), response.getAttempts(),
+          System.nanoTime() - start);
+    }
+    if (!hashFilter.test(Hasher.hashTrytesToTrits(mode, response.getTrytes()))) {
+      log.error("Remote PoW result was rejected by the hash filter.");
+      return PoWResult.notFound(PoWResult.Outcome.FAILED, response.getRejectedCandidates() + 1,
+          response.getAttempts(), System.nanoTime() - start);
+    }
+    return PoWResult.found(response.getTrytes(), response.getRejectedCandidates(), response.getAttempts(),
+        System.nanoTime() - start);
+  }
+
+  /**
+   * @return whether {@code result} is {@code trytes} with only the nonce replaced, and its hash meets the MWM
+   */
+  private boolean isValid(String trytes, int minWeightMagnitude, String result) {
+    if (result.length() != trytes.length()
+        || !result.regionMatches(0, trytes, 0, trytes.length() - NONCE_LENGTH)) {
+      log.error("Remote PoW result changed the transaction outside of the nonce.");
+      return false;
+    }
+
+    int[] hash = Hasher.hashTrytesToTrits(mode, result);
+    for (int i = hash.length - minWeightMagnitude; i < hash.length; i++) {
+      if (hash[i] != 0) {
+        log.error("Remote PoW result does not meet MWM {}.", minWeightMagnitude);
+        return false;
+      }
+    }
+    return true;
+  }
+}
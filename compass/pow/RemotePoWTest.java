@@ -0,0 +1,120 @@
+package org.iota.compass;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.iota.compass.conf.PoWServerConfiguration;
+import org.iota.compass.crypto.PoWResult;
+import org.iota.compass.proto.*;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs the PoW service on an in-process server, and checks that {@link RemotePoW} only accepts valid results.
+ */
+@RunWith(JUnit4.class)
+public class RemotePoWTest {
+  private static final int MWM = 9;
+
+  @Rule
+  public final InProcessGrpc grpc = new InProcessGrpc();
+
+  private final PoWServer powServer = new PoWServer(new PoWServerConfiguration());
+
+  @After
+  public void tearDown() {
+    powServer.stop();
+  }
+
+  private RemotePoW client(String name) {
+    return grpc.client(new RemotePoW(SpongeFactory.Mode.CURLP81, InProcessChannelBuilder.forName(name)),
+        RemotePoW::shutdown);
+  }
+
+  /**
+   * @return a service that performs the PoW on the real server and then alters its result
+   */
+  private PoWGrpc.PoWImplBase tampering(UnaryOperator<String> tamper) {
+    PoWGrpc.PoWImplBase service = powServer.new PoWImpl();
+    return new PoWGrpc.PoWImplBase() {
+      @Override
+      public void performPoW(PerformPoWRequest request, StreamObserver<PerformPoWResponse> responseObserver) {
+        service.performPoW(request, new StreamObserver<PerformPoWResponse>() {
+          @Override
+          public void onNext(PerformPoWResponse value) {
+            responseObserver.onNext(value.toBuilder().setTrytes(tamper.apply(value.getTrytes())).build());
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            responseObserver.onError(t);
+          }
+
+          @Override
+          public void onCompleted() {
+            responseObserver.onCompleted();
+          }
+        });
+      }
+    };
+  }
+
+  private static String transaction(char fill) {
+    char[] trytes = new char[2673];
+    Arrays.fill(trytes, fill);
+    return new String(trytes);
+  }
+
+  @Test
+  public void acceptsValidResult() throws IOException {
+    String trytes = transaction('A');
+    PoWResult result = client(grpc.start(powServer.new PoWImpl())).performPoW(trytes, MWM, hashTrits -> true);
+
+    Assert.assertNotNull(result);
+    Assert.assertEquals(trytes.substring(0, 2673 - 27), result.getTrytes().substring(0, 2673 - 27));
+  }
+
+  @Test
+  public void rejectsResultWithChangedTransaction() throws IOException {
+    RemotePoW remote = client(grpc.start(tampering(trytes -> 'B' + trytes.substring(1))));
+
+    Assert.assertNull(remote.performPoW(transaction('A'), MWM, hashTrits -> true));
+  }
+
+  @Test
+  public void rejectsResultBelowMinWeightMagnitude() throws IOException {
+    // Sends back the transaction without the nonce that was found for it
+    String trytes = transaction('A');
+    RemotePoW remote = client(grpc.start(tampering(found -> trytes)));
+
+    Assert.assertNull(remote.performPoW(trytes, MWM, hashTrits -> true));
+  }
+
+  @Test
+  public void rejectsInvalidTransactionsUpFront() throws IOException {
+    PoWGrpc.PoWBlockingStub stub = PoWGrpc.newBlockingStub(grpc.channel(grpc.start(powServer.new PoWImpl())));
+
+    for (PerformPoWRequest request : Arrays.asList(
+        PerformPoWRequest.newBuilder().setMode(PoWMode.POW_KERL).setTrytes("ABC").build(),
+        PerformPoWRequest.newBuilder().setMode(PoWMode.POW_CURLP81).setTrytes(transaction('a')).build(),
+        PerformPoWRequest.newBuilder().setMode(PoWMode.POW_CURLP81).setTrytes(transaction('A'))
+            .setMinWeightMagnitude(244).build())) {
+      try {
+        stub.performPoW(request);
+        Assert.fail("Request should have been rejected");
+      } catch (StatusRuntimeException e) {
+        Assert.assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+      }
+    }
+  }
+}
@@ -3,11 +3,13 @@ package org.iota.compass;
 
 import org.iota.jota.pow.JCurl;
 import org.iota.jota.pow.SpongeFactory;
-import org.iota.jota.utils.Converter;
 import org.iota.compass.crypto.ISS;
 import org.iota.compass.crypto.ISSInPlace;
+import org.iota.compass.crypto.ParallelISS;
+import org.iota.compass.crypto.TryteCodec;
 
 import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
 
 /**
  * A signature provider that holds the seed in local memory.
@@ -17,11 +19,13 @@ public class InMemorySignatureSource extends SignatureSource {
   private final SpongeFactory.Mode mode;
   private final int[] seed;
   private final int security;
+  private final ThreadLocal<AddressScratch> addressScratch;
 
   public InMemorySignatureSource(SpongeFactory.Mode mode, String seed, int security) {
     this.mode = mode;
-    this.seed = Converter.trits(seed);
+    this.seed = TryteCodec.trits(seed);
     this.security = security;
+    this.addressScratch = ThreadLocal.withInitial(() -> new AddressScratch(security));
   }
 
   @Override
@@ -36,20 +40,43 @@ public class InMemorySignatureSource extends SignatureSource {
 
   @Override
   public String getAddress(long index) {
-    int[] subseed = new int[JCurl.HASH_LENGTH];
-    int[] key = new int[ISSInPlace.FRAGMENT_LENGTH * security];
-    int[] digests = new int[key.length / ISSInPlace.FRAGMENT_LENGTH * JCurl.HASH_LENGTH];
-    int[] address = new int[JCurl.HASH_LENGTH];
+    AddressScratch scratch = addressScratch.get();
 
-    System.arraycopy(seed, 0, subseed, 0, subseed.length);
-    ISSInPlace.subseed(mode, subseed, index);
-    ISSInPlace.key(mode, subseed, key);
-    Arrays.fill(subseed, 0);
-    ISSInPlace.digests(mode, key, digests);
-    Arrays.fill(key, 0);
-    ISSInPlace.address(mode, digests, address);
+    System.arraycopy(seed, 0, scratch.preimage, 0, scratch.preimage.length);
+    ISS.addIndex(scratch.preimage, index);
+    String address = TryteCodec.trytes(scratch.address(mode));
+    Arrays.fill(scratch.preimage, 0);
 
-    return Converter.trytes(address);
+    return address;
+  }
+
+  @Override
+  public void getAddresses(long from, long count, ObjLongConsumer<String> consumer) {
+    getAddressTrits(from, count, (address, index) -> consumer.accept(TryteCodec.trytes(address), index));
+  }
+
+  /**
+   * Steps the subseed preimage by one for every index instead of deriving it from the seed again, and reuses this
+   * thread's buffers for the whole range.
+   */
+  @Override
+  public void getAddressTrits(long from, long count, ObjLongConsumer<int[]> consumer) {
+    if (from < 0 || count < 0) {
+      throw new IllegalArgumentException("Invalid address range: " + from + " + " + count);
+    }
+
+    AddressScratch scratch = addressScratch.get();
+
+    System.arraycopy(seed, 0, scratch.preimage, 0, scratch.preimage.length);
+    ISS.addIndex(scratch.preimage, from);
+    try {
+      for (long index = from; index < from + count; index++) {
+        consumer.accept(scratch.address(mode), index);
+        ISS.addIndex(scratch.preimage, 1);
+      }
+    } finally {
+      Arrays.fill(scratch.preimage, 0);
+    }
   }
 
   /**
@@ -59,23 +86,54 @@ public class InMemorySignatureSource extends SignatureSource {
    */
   @Override
   public String getSignature(long index, String hashToSign) {
-    int[] subseed = ISS.subseed(mode, seed, index);
-    int[] key = ISS.key(mode, subseed, security);
+    return TryteCodec.trytes(getSignatureTrits(index, TryteCodec.trits(hashToSign)));
+  }
+
+  @Override
+  public int[] getSignatureTrits(long index, int[] hashToSign) {
+    int[] subseed = Arrays.copyOf(seed, JCurl.HASH_LENGTH);
+    int[] key = new int[ISSInPlace.FRAGMENT_LENGTH * security];
+
+    ISSInPlace.subseed(mode, subseed, index);
+    ISSInPlace.key(mode, subseed, key);
     Arrays.fill(subseed, 0);
 
-    int[] normalizedBundle = ISS.normalizedBundle(Converter.trits(hashToSign));
+    int[] normalizedBundle = ISS.normalizedBundle(hashToSign);
 
-    StringBuilder fragment = new StringBuilder();
+    // the key is no longer needed once it is signed with
+    ParallelISS.signatureFragments(mode, normalizedBundle, key, key);
+    return key;
+  }
 
-    for (int i = 0; i < getSecurity(); i++) {
-      int[] curFrag = ISS.signatureFragment(getSignatureMode(),
-          Arrays.copyOfRange(normalizedBundle, i * ISS.NUMBER_OF_FRAGMENT_CHUNKS, (i + 1) * ISS.NUMBER_OF_FRAGMENT_CHUNKS),
-          Arrays.copyOfRange(key, i * ISS.FRAGMENT_LENGTH, (i + 1) * ISS.FRAGMENT_LENGTH));
-      fragment.append(Converter.trytes(curFrag));
+  /**
+   * Per-thread buffers for address generation; the secret parts are cleared as soon as they are no longer needed.
+   */
+  private static class AddressScratch {
+    final int[] preimage = new int[JCurl.HASH_LENGTH];
+    final int[] subseed = new int[JCurl.HASH_LENGTH];
+    final int[] key;
+    final int[] digests;
+    final int[] address = new int[JCurl.HASH_LENGTH];
+
+    AddressScratch(int security) {
+      key = new int[ISSInPlace.FRAGMENT_LENGTH * security];
+      digests = new int[security * JCurl.HASH_LENGTH];
     }
 
-    Arrays.fill(key, 0);
-
-    return fragment.toString();
+    /**
+     * @return the trits of the address for the subseed preimage currently held in {@link #preimage}, valid until the
+     * next call
+     */
+    int[] address(SpongeFactory.Mode mode) {
+      System.arraycopy(preimage, 0, subseed, 0, subseed.length);
+      ISSInPlace.subseed(mode, subseed, 0);
+      ISSInPlace.key(mode, subseed, key);
+      Arrays.fill(subseed, 0);
+      ISSInPlace.digests(mode, key, digests, key);
+      Arrays.fill(key, 0);
+      ISSInPlace.address(mode, digests, address);
+
+      return address;
+    }
   }
 }
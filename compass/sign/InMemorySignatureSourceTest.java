@@ -0,0 +1,59 @@
+package org.iota.compass;
+
+import org.iota.compass.crypto.ISS;
+import org.iota.compass.crypto.TryteCodec;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Verifies that the address ranges, which step the subseed preimage instead of deriving it again, give the same
+ * addresses as single lookups.
+ */
+@RunWith(JUnit4.class)
+public class InMemorySignatureSourceTest {
+
+  private void assertRangeSameAsGetAddress(SpongeFactory.Mode mode, String seed, int security, long from, int count) {
+    InMemorySignatureSource source = new InMemorySignatureSource(mode, seed, security);
+    List<String> addresses = new ArrayList<>();
+    source.getAddressTrits(from, count, (address, index) -> {
+      Assert.assertEquals(from + addresses.size(), index);
+      addresses.add(TryteCodec.trytes(address));
+    });
+
+    Assert.assertEquals(count, addresses.size());
+    for (int i = 0; i < count; i++) {
+      long index = from + i;
+      String message = mode + ", security " + security + ", index " + index;
+      Assert.assertEquals(message, source.getAddress(index), addresses.get(i));
+
+      int[] key = ISS.key(mode, ISS.subseed(mode, TryteCodec.trits(seed), index), security);
+      Assert.assertEquals(message, TryteCodec.trytes(ISS.address(mode, ISS.digests(mode, key))), addresses.get(i));
+    }
+  }
+
+  @Test
+  public void addressRangesMatchGetAddress() {
+    String seed = TestUtil.nextSeed();
+    for (SpongeFactory.Mode mode : new SpongeFactory.Mode[]{SpongeFactory.Mode.KERL, SpongeFactory.Mode.CURLP27,
+        SpongeFactory.Mode.CURLP81}) {
+      assertRangeSameAsGetAddress(mode, seed, 1, 0, 5);
+      assertRangeSameAsGetAddress(mode, seed, 2, 1234, 5);
+    }
+    assertRangeSameAsGetAddress(SpongeFactory.Mode.CURLP27, seed, 3, 1L << 40, 3);
+  }
+
+  @Test
+  public void addressRangesCarryAcrossTrytes() {
+    // A seed of only 'M' trytes carries into the next tryte with every index
+    char[] seed = new char[81];
+    Arrays.fill(seed, 'M');
+    assertRangeSameAsGetAddress(SpongeFactory.Mode.CURLP27, new String(seed), 1, 11, 20);
+  }
+}
@@ -1,11 +1,24 @@
 package org.iota.compass;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NettyChannelBuilder;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import org.iota.compass.crypto.ISS;
+import org.iota.compass.crypto.TritBuffer;
+import org.iota.compass.crypto.TryteCodec;
+import org.iota.jota.pow.JCurl;
 import org.iota.jota.pow.SpongeFactory;
 import org.iota.compass.proto.*;
 import org.slf4j.Logger;
@@ -14,18 +27,48 @@ import org.slf4j.LoggerFactory;
 import javax.net.ssl.SSLException;
 import java.io.File;
 import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
 
 /**
  * An implementation of a SignatureSource that talks to a remote gRPC service.
+ * <p>
+ * Every call is bounded by the deadline of its {@link RetryPolicy} and retried with exponential backoff while the
+ * service is unavailable, overloaded or too slow. Retries repeat the identical request, so the service is never asked
+ * to sign a second hash with the same key.
  */
 public class RemoteSignatureSource extends SignatureSource {
   private static final Logger log = LoggerFactory.getLogger(RemoteSignatureSource.class);
   public static final String DEFAULT_CACHE_TTL = "5";
 
-  private SignatureSourceGrpc.SignatureSourceBlockingStub serviceStub;
-  private final ManagedChannelBuilder channelBuilder;
+  private static final Set<Status.Code> RETRYABLE_CODES = EnumSet.of(
+      Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED, Status.Code.RESOURCE_EXHAUSTED, Status.Code.ABORTED);
+
+  /**
+   * Number of GetAddress calls kept in flight by services that don't implement GetAddresses.
+   */
+  private static final int MAX_PENDING_ADDRESS_CALLS = 64;
+
+  private final ManagedChannel channel;
+  private final SignatureSourceGrpc.SignatureSourceFutureStub serviceStub;
+  private final SignatureSourceGrpc.SignatureSourceBlockingStub streamingStub;
+  private final RetryPolicy retryPolicy;
+  private final ScheduledThreadPoolExecutor retryScheduler;
+
+  /**
+   * Whether the service has answered with packed trits, so that it also accepts them in requests.
+   */
+  private volatile boolean serverPacksTrits = false;
 
   private Optional<Integer> cachedSecurity = Optional.empty();
   private Optional<SpongeFactory.Mode> cachedSignatureMode = Optional.empty();
@@ -37,35 +80,79 @@ public class RemoteSignatureSource extends SignatureSource {
    * @param trustCertCollectionFilePath
    * @param clientCertChainFilePath
    * @param clientPrivateKeyFilePath
+   * @param retryPolicy                 the deadline and retries of each call
    * @throws SSLException
    */
   public RemoteSignatureSource(String uri,
                                String trustCertCollectionFilePath,
                                String clientCertChainFilePath,
-                               String clientPrivateKeyFilePath) throws SSLException {
-
-    this.channelBuilder = createSecureManagedChannelBuilder(
+                               String clientPrivateKeyFilePath,
+                               RetryPolicy retryPolicy) throws SSLException {
+    this(createSecureManagedChannelBuilder(
       uri, trustCertCollectionFilePath, clientCertChainFilePath, clientPrivateKeyFilePath
-    );
-    this.serviceStub = SignatureSourceGrpc.newBlockingStub(channelBuilder.build());
-
+    ), retryPolicy);
   }
 
+  /**
+   * Constructs a RemoteSignatureSource using an encrypted gRPC channel and the {@link RetryPolicy#DEFAULT} policy.
+   *
+   * @param uri                         the URI of the host to connect to
+   * @param trustCertCollectionFilePath
+   * @param clientCertChainFilePath
+   * @param clientPrivateKeyFilePath
+   * @throws SSLException
+   */
+  public RemoteSignatureSource(String uri,
+                               String trustCertCollectionFilePath,
+                               String clientCertChainFilePath,
+                               String clientPrivateKeyFilePath) throws SSLException {
+    this(uri, trustCertCollectionFilePath, clientCertChainFilePath, clientPrivateKeyFilePath, RetryPolicy.DEFAULT);
+  }
 
   /**
    * Constructs a RemoteSignatureSource using an *unencrypted* gRPC channel.
    *
+   * @param uri         the URI of the host to connect to
+   * @param retryPolicy the deadline and retries of each call
+   */
+  public RemoteSignatureSource(String uri, RetryPolicy retryPolicy) {
+    this(createPlaintextManagedChannelBuilder(uri), retryPolicy);
+  }
+
+  /**
+   * Constructs a RemoteSignatureSource using an *unencrypted* gRPC channel and the {@link RetryPolicy#DEFAULT} policy.
+   *
    * @param uri the URI of the host to connect to
    */
   public RemoteSignatureSource(String uri) {
-    this.channelBuilder = createPlaintextManagedChannelBuilder(uri);
-    this.serviceStub = SignatureSourceGrpc.newBlockingStub(channelBuilder.build());
+    this(uri, RetryPolicy.DEFAULT);
   }
 
-  private ManagedChannelBuilder createSecureManagedChannelBuilder(String uri,
-                                                                  String trustCertCollectionFilePath,
-                                                                  String clientCertChainFilePath,
-                                                                  String clientPrivateKeyFilePath) throws SSLException {
+  /**
+   * Constructs a RemoteSignatureSource on a channel built by {@code channelBuilder}, e.g. an in-process one.
+   *
+   * @param channelBuilder builds the channel to the service
+   * @param retryPolicy    the deadline and retries of each call
+   */
+  RemoteSignatureSource(ManagedChannelBuilder<?> channelBuilder, RetryPolicy retryPolicy) {
+    // The channel reconnects by itself, so a failed call does not require a new one
+    this.channel = channelBuilder.build();
+    this.serviceStub = SignatureSourceGrpc.newFutureStub(channel);
+    this.streamingStub = SignatureSourceGrpc.newBlockingStub(channel);
+    this.retryPolicy = retryPolicy;
+    this.retryScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "signature-source-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    retryScheduler.setKeepAliveTime(1, TimeUnit.MINUTES);
+    retryScheduler.allowCoreThreadTimeOut(true);
+  }
+
+  private static ManagedChannelBuilder<?> createSecureManagedChannelBuilder(String uri,
+                                                                            String trustCertCollectionFilePath,
+                                                                            String clientCertChainFilePath,
+                                                                            String clientPrivateKeyFilePath) throws SSLException {
     String cacheTtl = Security.getProperty("networkaddress.cache.ttl");
     if (cacheTtl == null) {
       cacheTtl = DEFAULT_CACHE_TTL;
@@ -79,7 +166,7 @@ public class RemoteSignatureSource extends SignatureSource {
       );
   }
 
-  private ManagedChannelBuilder createPlaintextManagedChannelBuilder(String uri) {
+  private static ManagedChannelBuilder<?> createPlaintextManagedChannelBuilder(String uri) {
     String cacheTtl = Security.getProperty("networkaddress.cache.ttl");
     if (cacheTtl == null) {
       cacheTtl = DEFAULT_CACHE_TTL;
@@ -105,23 +192,142 @@ public class RemoteSignatureSource extends SignatureSource {
     return builder.build();
   }
 
+  public void shutdown() {
+    channel.shutdown();
+  }
+
+  /**
+   * Issues {@code rpc} and retries it according to the {@link RetryPolicy}. Cancelling the returned future cancels
+   * the call in flight and any further retries.
+   */
+  private <T> CompletableFuture<T> call(String name,
+                                        Function<SignatureSourceGrpc.SignatureSourceFutureStub, ListenableFuture<T>> rpc) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attempt(name, rpc, 1, result);
+    return result;
+  }
+
+  private <T> void attempt(String name,
+                           Function<SignatureSourceGrpc.SignatureSourceFutureStub, ListenableFuture<T>> rpc,
+                           int attempt, CompletableFuture<T> result) {
+    if (result.isDone()) {
+      return;
+    }
+
+    ListenableFuture<T> response = rpc.apply(
+        serviceStub.withDeadlineAfter(retryPolicy.deadlineMillis, TimeUnit.MILLISECONDS));
+    result.whenComplete((value, t) -> {
+      if (result.isCancelled()) {
+        response.cancel(true);
+      }
+    });
+    Futures.addCallback(response, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        result.complete(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        Status status = Status.fromThrowable(t);
+        if (attempt >= retryPolicy.maxAttempts || !RETRYABLE_CODES.contains(status.getCode()) || result.isDone()) {
+          result.completeExceptionally(t);
+          return;
+        }
+
+        long backoffMillis = retryPolicy.backoffMillis(attempt);
+        log.warn("{} attempt {} of {} failed: {}. Retrying in {} ms.", name, attempt, retryPolicy.maxAttempts,
+            status, backoffMillis);
+        retryScheduler.schedule(() -> attempt(name, rpc, attempt + 1, result), backoffMillis, TimeUnit.MILLISECONDS);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Waits for a call and rethrows its failure unwrapped, as the blocking stub would.
+   */
+  private static <T> T await(CompletableFuture<T> call) {
+    try {
+      return call.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
   @Override
   public String getSignature(long index, String hash) {
+    return await(getSignatureAsync(index, hash));
+  }
+
+  @Override
+  public CompletableFuture<String> getSignatureAsync(long index, String hash) {
     log.trace("Requesting signature for index: " + index + " and hash: " + hash);
-    GetSignatureResponse response;
-    try {
-      response = serviceStub.getSignature(GetSignatureRequest.newBuilder().setIndex(index).setHash(hash).build());
-    } catch (StatusRuntimeException e) {
-      // If an exception occurs, wait 10 seconds, and retry only once by rebuilding the gRPC client stub from a new Channel
-      try {
-        Thread.sleep(10_000);
-      } catch (InterruptedException ex) {
-        // Ignore the fact that we got interrupted
-      }
-      serviceStub = SignatureSourceGrpc.newBlockingStub(channelBuilder.build());
-      response = serviceStub.getSignature(GetSignatureRequest.newBuilder().setIndex(index).setHash(hash).build());
+    return map(requestSignature(index, TryteCodec.trits(hash)), this::signatureTrytes);
+  }
+
+  @Override
+  public int[] getSignatureTrits(long index, int[] hash) {
+    return await(map(requestSignature(index, hash), this::signatureTrits));
+  }
+
+  private CompletableFuture<GetSignatureResponse> requestSignature(long index, int[] hash) {
+    GetSignatureRequest.Builder request = GetSignatureRequest.newBuilder()
+        .setIndex(index)
+        .setEncoding(TritEncoding.TRIT_ENCODING_PACKED);
+    if (serverPacksTrits) {
+      request.setHashTrits(UnsafeByteOperations.unsafeWrap(TritBuffer.pack(hash, 0, hash.length)));
+    } else {
+      request.setHash(TryteCodec.trytes(hash));
+    }
+
+    GetSignatureRequest built = request.build();
+    return call("GetSignature", stub -> stub.getSignature(built));
+  }
+
+  private String signatureTrytes(GetSignatureResponse response) {
+    if (response.getSignatureFragmentTritsCount() == 0) {
+      return response.getSignature();
     }
-    return response.getSignature();
+    return TryteCodec.trytes(signatureTrits(response));
+  }
+
+  private int[] signatureTrits(GetSignatureResponse response) {
+    if (response.getSignatureFragmentTritsCount() == 0) {
+      return TryteCodec.trits(response.getSignature());
+    }
+
+    serverPacksTrits = true;
+    int[] signature = new int[response.getSignatureFragmentTritsCount() * ISS.FRAGMENT_LENGTH];
+    for (int i = 0; i < response.getSignatureFragmentTritsCount(); i++) {
+      TritBuffer.unpack(response.getSignatureFragmentTrits(i).toByteArray(), signature, i * ISS.FRAGMENT_LENGTH,
+          ISS.FRAGMENT_LENGTH);
+    }
+    return signature;
+  }
+
+  /**
+   * Unpacks a hash sent as packed trits into {@code hash}.
+   */
+  private int[] unpackHash(ByteString packed, int[] hash) {
+    serverPacksTrits = true;
+    TritBuffer.unpack(packed.toByteArray(), hash, 0, JCurl.HASH_LENGTH);
+    return hash;
+  }
+
+  /**
+   * @return {@code call} mapped by {@code function}; cancelling the result cancels the call
+   */
+  private static <T, R> CompletableFuture<R> map(CompletableFuture<T> call, Function<T, R> function) {
+    CompletableFuture<R> result = call.thenApply(function);
+    result.whenComplete((value, t) -> {
+      if (result.isCancelled()) {
+        call.cancel(true);
+      }
+    });
+    return result;
   }
 
   @Override
@@ -131,7 +337,8 @@ public class RemoteSignatureSource extends SignatureSource {
         return cachedSecurity.get();
 
 
-      GetSecurityResponse response = serviceStub.getSecurity(GetSecurityRequest.getDefaultInstance());
+      GetSecurityResponse response = await(call("GetSecurity",
+          stub -> stub.getSecurity(GetSecurityRequest.getDefaultInstance())));
       cachedSecurity = Optional.of(response.getSecurity());
 
       log.info("Caching security level: " + response.getSecurity());
@@ -145,7 +352,8 @@ public class RemoteSignatureSource extends SignatureSource {
     synchronized (cachedSignatureMode) {
       if (cachedSignatureMode.isPresent()) return cachedSignatureMode.get();
 
-      GetSignatureModeResponse response = serviceStub.getSignatureMode(GetSignatureModeRequest.getDefaultInstance());
+      GetSignatureModeResponse response = await(call("GetSignatureMode",
+          stub -> stub.getSignatureMode(GetSignatureModeRequest.getDefaultInstance())));
 
       SpongeFactory.Mode spongeMode;
       switch (response.getMode()) {
@@ -172,7 +380,163 @@ public class RemoteSignatureSource extends SignatureSource {
 
   @Override
   public String getAddress(long index) {
-    GetAddressResponse response = serviceStub.getAddress(GetAddressRequest.newBuilder().setIndex(index).build());
-    return response.getAddress();
+    GetAddressResponse response = await(requestAddress(index));
+    if (response.getAddressTrits().isEmpty()) {
+      return response.getAddress();
+    }
+    return TryteCodec.trytes(unpackHash(response.getAddressTrits(), new int[JCurl.HASH_LENGTH]));
+  }
+
+  private CompletableFuture<GetAddressResponse> requestAddress(long index) {
+    GetAddressRequest request = GetAddressRequest.newBuilder()
+        .setIndex(index)
+        .setEncoding(TritEncoding.TRIT_ENCODING_PACKED)
+        .build();
+    return call("GetAddress", stub -> stub.getAddress(request));
+  }
+
+  @Override
+  public void getAddresses(long from, long count, ObjLongConsumer<String> consumer) {
+    getAddressTrits(from, count, (address, index) -> consumer.accept(TryteCodec.trytes(address), index));
+  }
+
+  /**
+   * Streams the whole range with a single GetAddresses call, which the service calculates in parallel. The stream has
+   * no deadline as its duration grows with the range. If it fails, it is resumed after the last address received,
+   * and services that don't implement GetAddresses are asked for one address at a time.
+   */
+  @Override
+  public void getAddressTrits(long from, long count, ObjLongConsumer<int[]> consumer) {
+    if (from < 0 || count < 0) {
+      throw new IllegalArgumentException("Invalid address range: " + from + " + " + count);
+    }
+
+    final int[] address = new int[JCurl.HASH_LENGTH];
+    final long end = from + count;
+    long next = from;
+    int failedAttempts = 0;
+    while (next < end) {
+      GetAddressesRequest request = GetAddressesRequest.newBuilder()
+          .setFrom(next)
+          .setCount(end - next)
+          .setEncoding(TritEncoding.TRIT_ENCODING_PACKED)
+          .build();
+      // Closing the context cancels the stream if the consumer throws
+      try (Context.CancellableContext context = Context.current().withCancellation()) {
+        Iterator<GetAddressesResponse> batches;
+        Context previous = context.attach();
+        try {
+          batches = streamingStub.getAddresses(request);
+        } finally {
+          context.detach(previous);
+        }
+
+        while (batches.hasNext()) {
+          GetAddressesResponse batch = batches.next();
+          if (batch.getFrom() != next) {
+            throw new IllegalStateException("Expected addresses from index " + next + " but got " + batch.getFrom());
+          }
+          for (ByteString packed : batch.getAddressTritsList()) {
+            consumer.accept(unpackHash(packed, address), next++);
+          }
+          for (String trytes : batch.getAddressesList()) {
+            TryteCodec.decode(trytes, 0, TryteCodec.tryteLength(JCurl.HASH_LENGTH), address, 0);
+            consumer.accept(address, next++);
+          }
+          failedAttempts = 0;
+        }
+        if (next < end) {
+          throw new IllegalStateException("GetAddresses ended at index " + next + " instead of " + end);
+        }
+      } catch (StatusRuntimeException e) {
+        Status status = e.getStatus();
+        if (status.getCode() == Status.Code.UNIMPLEMENTED) {
+          log.warn("Remote signature source does not implement GetAddresses, falling back to GetAddress.");
+          getAddressesOneByOne(next, end, consumer);
+          return;
+        }
+        if (++failedAttempts >= retryPolicy.maxAttempts || !RETRYABLE_CODES.contains(status.getCode())) {
+          throw e;
+        }
+
+        long backoffMillis = retryPolicy.backoffMillis(failedAttempts);
+        log.warn("GetAddresses failed at index {}: {}. Resuming in {} ms.", next, status, backoffMillis);
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw Status.CANCELLED.withDescription("Interrupted while waiting to resume GetAddresses").asRuntimeException();
+        }
+      }
+    }
+  }
+
+  /**
+   * Requests the addresses with one GetAddress call per index, keeping up to {@link #MAX_PENDING_ADDRESS_CALLS} calls
+   * in flight.
+   */
+  private void getAddressesOneByOne(long from, long end, ObjLongConsumer<int[]> consumer) {
+    final int[] address = new int[JCurl.HASH_LENGTH];
+    ArrayDeque<CompletableFuture<GetAddressResponse>> pending = new ArrayDeque<>();
+    long requested = from;
+    try {
+      for (long index = from; index < end; index++) {
+        while (requested < end && requested - index < MAX_PENDING_ADDRESS_CALLS) {
+          pending.add(requestAddress(requested++));
+        }
+
+        GetAddressResponse response = await(pending.poll());
+        if (response.getAddressTrits().isEmpty()) {
+          TryteCodec.decode(response.getAddress(), 0, TryteCodec.tryteLength(JCurl.HASH_LENGTH), address, 0);
+        } else {
+          unpackHash(response.getAddressTrits(), address);
+        }
+        consumer.accept(address, index);
+      }
+    } finally {
+      pending.forEach(call -> call.cancel(true));
+    }
+  }
+
+  @Override
+  public boolean parallelizesAddressRanges() {
+    return true;
+  }
+
+  /**
+   * The deadline of a single call and how often and how fast failed calls are retried.
+   */
+  public static final class RetryPolicy {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3_000, 3, 250, 2_000);
+
+    private final long deadlineMillis;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    /**
+     * @param deadlineMillis       the deadline of each attempt
+     * @param maxAttempts          the number of attempts including the first one
+     * @param initialBackoffMillis the delay before the first retry; it doubles with every further retry
+     * @param maxBackoffMillis     the upper bound of the delay between two attempts
+     */
+    public RetryPolicy(long deadlineMillis, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+      if (deadlineMillis <= 0 || maxAttempts < 1 || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+        throw new IllegalArgumentException("Invalid retry policy: deadline " + deadlineMillis + " ms, "
+            + maxAttempts + " attempts, backoff " + initialBackoffMillis + " to " + maxBackoffMillis + " ms");
+      }
+      this.deadlineMillis = deadlineMillis;
+      this.maxAttempts = maxAttempts;
+      this.initialBackoffMillis = initialBackoffMillis;
+      this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return the delay after the given failed attempt, jittered by up to half so that clients do not retry in step
+     */
+    long backoffMillis(int failedAttempt) {
+      long backoff = (long) Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(2, failedAttempt - 1));
+      return backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
   }
 }
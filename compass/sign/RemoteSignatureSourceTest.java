@@ -0,0 +1,219 @@
+package org.iota.compass;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.iota.compass.proto.*;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the client side of the signature source protocol against in-process services that misbehave on purpose.
+ */
+@RunWith(JUnit4.class)
+public class RemoteSignatureSourceTest {
+  private static final RemoteSignatureSource.RetryPolicy RETRY_POLICY =
+      new RemoteSignatureSource.RetryPolicy(10_000, 3, 20, 100);
+
+  @Rule
+  public final InProcessGrpc grpc = new InProcessGrpc();
+
+  private final SignatureSource signatureSource =
+      new InMemorySignatureSource(SpongeFactory.Mode.CURLP27, TestUtil.nextSeed(), 1);
+  private final ThreadPoolExecutor signingWorkers = workers(1);
+  private final ThreadPoolExecutor addressWorkers = workers(2);
+  private final SignatureSourceServer.SignatureSourceImpl service =
+      new SignatureSourceServer.SignatureSourceImpl(signatureSource, signingWorkers, addressWorkers, 128, 2);
+
+  @After
+  public void tearDown() {
+    signingWorkers.shutdownNow();
+    addressWorkers.shutdownNow();
+  }
+
+  private static ThreadPoolExecutor workers(int threads) {
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256));
+  }
+
+  private RemoteSignatureSource start(SignatureSourceGrpc.SignatureSourceImplBase fake,
+                                      RemoteSignatureSource.RetryPolicy retryPolicy) throws IOException {
+    return grpc.client(new RemoteSignatureSource(InProcessChannelBuilder.forName(grpc.start(fake)), retryPolicy),
+        RemoteSignatureSource::shutdown);
+  }
+
+  private void assertAddresses(SignatureSource source, long from, int count) {
+    List<String> addresses = new ArrayList<>();
+    source.getAddresses(from, count, (address, index) -> {
+      Assert.assertEquals(from + addresses.size(), index);
+      addresses.add(address);
+    });
+
+    Assert.assertEquals(count, addresses.size());
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(signatureSource.getAddress(from + i), addresses.get(i));
+    }
+  }
+
+  @Test
+  public void resumesStreamAfterLastReceivedAddress() throws IOException {
+    List<Long> requestedFrom = Collections.synchronizedList(new ArrayList<>());
+    RemoteSignatureSource remote = start(new SignatureSourceGrpc.SignatureSourceImplBase() {
+      @Override
+      public void getAddresses(GetAddressesRequest request, StreamObserver<GetAddressesResponse> responseObserver) {
+        requestedFrom.add(request.getFrom());
+        if (requestedFrom.size() > 1) {
+          service.getAddresses(request, responseObserver);
+          return;
+        }
+
+        // Break off after a partial first batch
+        GetAddressesResponse.Builder batch = GetAddressesResponse.newBuilder().setFrom(request.getFrom());
+        signatureSource.getAddresses(request.getFrom(), 100, (address, index) -> batch.addAddresses(address));
+        responseObserver.onNext(batch.build());
+        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+      }
+    }, RETRY_POLICY);
+
+    assertAddresses(remote, 7, 300);
+    Assert.assertEquals(Arrays.asList(7L, 107L), requestedFrom);
+  }
+
+  @Test
+  public void fallsBackToGetAddressWithoutGetAddresses() throws IOException {
+    AtomicInteger calls = new AtomicInteger();
+    RemoteSignatureSource remote = start(new SignatureSourceGrpc.SignatureSourceImplBase() {
+      @Override
+      public void getAddress(GetAddressRequest request, StreamObserver<GetAddressResponse> responseObserver) {
+        calls.incrementAndGet();
+        service.getAddress(request, responseObserver);
+      }
+    }, RETRY_POLICY);
+
+    // More addresses than GetAddress calls are kept in flight
+    assertAddresses(remote, 3, 70);
+    Assert.assertEquals(70, calls.get());
+  }
+
+  /**
+   * @return a service that fails the first {@code failures.size()} GetSignature calls with the given statuses and
+   * signs from then on, recording when each call arrived
+   */
+  private SignatureSourceGrpc.SignatureSourceImplBase failingSigner(List<Status> failures, List<Long> arrivals) {
+    return new SignatureSourceGrpc.SignatureSourceImplBase() {
+      @Override
+      public void getSignature(GetSignatureRequest request, StreamObserver<GetSignatureResponse> responseObserver) {
+        arrivals.add(System.nanoTime());
+        if (arrivals.size() <= failures.size()) {
+          responseObserver.onError(failures.get(arrivals.size() - 1).asRuntimeException());
+          return;
+        }
+        service.getSignature(request, responseObserver);
+      }
+    };
+  }
+
+  @Test
+  public void retriesRetryableFailures() throws Exception {
+    List<Status> failures = Arrays.asList(Status.UNAVAILABLE, Status.DEADLINE_EXCEEDED, Status.RESOURCE_EXHAUSTED,
+        Status.ABORTED);
+    RemoteSignatureSource.RetryPolicy retryPolicy = new RemoteSignatureSource.RetryPolicy(10_000, 5, 40, 80);
+    List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+    RemoteSignatureSource remote = start(failingSigner(failures, arrivals), retryPolicy);
+
+    String hash = TestUtil.nextSeed();
+    Assert.assertEquals(signatureSource.getSignature(1, hash), remote.getSignature(1, hash));
+    Assert.assertEquals(5, arrivals.size());
+
+    for (int attempt = 1; attempt < arrivals.size(); attempt++) {
+      long waitedMillis = TimeUnit.NANOSECONDS.toMillis(arrivals.get(attempt) - arrivals.get(attempt - 1));
+      // Jittered down by at most half, and never grown past the maximum backoff by more than scheduling delays
+      Assert.assertTrue("Retried after " + waitedMillis + " ms", waitedMillis >= 20);
+      Assert.assertTrue("Retried after " + waitedMillis + " ms", waitedMillis < 80 + 1_000);
+    }
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() throws IOException {
+    List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+    RemoteSignatureSource remote = start(failingSigner(Collections.nCopies(5, Status.UNAVAILABLE), arrivals),
+        RETRY_POLICY);
+
+    try {
+      remote.getSignature(1, TestUtil.nextSeed());
+      Assert.fail("The call should have failed");
+    } catch (StatusRuntimeException e) {
+      Assert.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+    }
+    Assert.assertEquals(3, arrivals.size());
+  }
+
+  @Test
+  public void doesNotRetryOtherFailures() throws IOException {
+    for (Status failure : Arrays.asList(Status.INVALID_ARGUMENT, Status.INTERNAL, Status.UNIMPLEMENTED)) {
+      List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+      RemoteSignatureSource remote = start(failingSigner(Collections.singletonList(failure), arrivals), RETRY_POLICY);
+
+      try {
+        remote.getSignature(1, TestUtil.nextSeed());
+        Assert.fail("The call should have failed with " + failure);
+      } catch (StatusRuntimeException e) {
+        Assert.assertEquals(failure.getCode(), e.getStatus().getCode());
+      }
+      Assert.assertEquals(1, arrivals.size());
+    }
+  }
+
+  @Test
+  public void backoffStaysWithinBounds() {
+    RemoteSignatureSource.RetryPolicy retryPolicy = new RemoteSignatureSource.RetryPolicy(10_000, 100, 20, 100);
+    for (int failedAttempt = 1; failedAttempt < 100; failedAttempt++) {
+      long nominal = Math.min(100, 20L << Math.min(failedAttempt - 1, 10));
+      long backoff = retryPolicy.backoffMillis(failedAttempt);
+      Assert.assertTrue("Backoff " + backoff + " after attempt " + failedAttempt,
+          backoff >= nominal - nominal / 2 && backoff <= nominal);
+    }
+  }
+
+  @Test
+  public void cancellingTheFutureCancelsTheServerCall() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    RemoteSignatureSource remote = start(new SignatureSourceGrpc.SignatureSourceImplBase() {
+      @Override
+      public void getSignature(GetSignatureRequest request, StreamObserver<GetSignatureResponse> responseObserver) {
+        // Never answers, so the call only ends when the client cancels it
+        calls.incrementAndGet();
+        ((ServerCallStreamObserver<GetSignatureResponse>) responseObserver).setOnCancelHandler(cancelled::countDown);
+        started.countDown();
+      }
+    }, RETRY_POLICY);
+
+    CompletableFuture<String> signature = remote.getSignatureAsync(1, TestUtil.nextSeed());
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(signature.cancel(true));
+
+    Assert.assertTrue("The server call was not cancelled", cancelled.await(10, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    Assert.assertEquals("A cancelled call should not be retried", 1, calls.get());
+  }
+}
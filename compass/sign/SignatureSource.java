@@ -1,7 +1,11 @@
 package org.iota.compass;
 
+import org.iota.compass.crypto.TryteCodec;
 import org.iota.jota.pow.SpongeFactory;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ObjLongConsumer;
+
 public abstract class SignatureSource {
   /**
    * Provides the signature for the given milestone index.
@@ -12,6 +16,35 @@ public abstract class SignatureSource {
    */
   public abstract String getSignature(long index, String bundleHash);
 
+  /**
+   * Trit variant of {@link #getSignature(long, String)}. The default implementation converts from and to trytes.
+   *
+   * @param index      the key / leaf index
+   * @param bundleHash the trits of the hash to sign
+   * @return the trits of the signature
+   */
+  public int[] getSignatureTrits(long index, int[] bundleHash) {
+    return TryteCodec.trits(getSignature(index, TryteCodec.trytes(bundleHash)));
+  }
+
+  /**
+   * Provides the signature for the given milestone index without making the caller wait for it, so that other work
+   * can overlap with a remote signature source. The default implementation signs on the calling thread.
+   *
+   * @param index      the key / leaf index
+   * @param bundleHash the hash to sign
+   * @return a future of the signature trytes, failed with the cause if signing failed
+   */
+  public CompletableFuture<String> getSignatureAsync(long index, String bundleHash) {
+    CompletableFuture<String> signature = new CompletableFuture<>();
+    try {
+      signature.complete(getSignature(index, bundleHash));
+    } catch (RuntimeException e) {
+      signature.completeExceptionally(e);
+    }
+    return signature;
+  }
+
   /**
    * The security level of this key provider
    *
@@ -31,4 +64,37 @@ public abstract class SignatureSource {
    */
   public abstract String getAddress(long index);
 
+  /**
+   * Calculates the addresses for a contiguous range of keys / leaves and hands them to {@code consumer} in index order.
+   *
+   * @param from     the first key / leaf index
+   * @param count    the number of addresses to calculate
+   * @param consumer receives each address together with its index
+   */
+  public void getAddresses(long from, long count, ObjLongConsumer<String> consumer) {
+    for (long index = from; index < from + count; index++) {
+      consumer.accept(getAddress(index), index);
+    }
+  }
+
+  /**
+   * Trit variant of {@link #getAddresses(long, long, ObjLongConsumer)}. The array handed to {@code consumer} may be
+   * reused for the next address. The default implementation converts from trytes.
+   *
+   * @param from     the first key / leaf index
+   * @param count    the number of addresses to calculate
+   * @param consumer receives the trits of each address together with its index
+   */
+  public void getAddressTrits(long from, long count, ObjLongConsumer<int[]> consumer) {
+    getAddresses(from, count, (address, index) -> consumer.accept(TryteCodec.trits(address), index));
+  }
+
+  /**
+   * @return whether {@link #getAddresses} calculates a range in parallel by itself, so that callers should request a
+   * whole range at once instead of splitting it across their own threads
+   */
+  public boolean parallelizesAddressRanges() {
+    return false;
+  }
+
 }
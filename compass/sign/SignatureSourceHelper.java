@@ -13,10 +13,12 @@ public class SignatureSourceHelper {
         RemoteSignatureSourceConfiguration sourceConf = new RemoteSignatureSourceConfiguration();
         JCommander.newBuilder().addObject(sourceConf).acceptUnknownOptions(true).build().parse(args);
 
+        RemoteSignatureSource.RetryPolicy retryPolicy = new RemoteSignatureSource.RetryPolicy(
+            sourceConf.deadline, sourceConf.attempts, sourceConf.backoff, sourceConf.maxBackoff);
         if (sourceConf.plaintext) {
-          return new RemoteSignatureSource(sourceConf.uri);
+          return new RemoteSignatureSource(sourceConf.uri, retryPolicy);
         } else {
-          return new RemoteSignatureSource(sourceConf.uri, sourceConf.trustCertCollection, sourceConf.clientCertChain, sourceConf.clientKey);
+          return new RemoteSignatureSource(sourceConf.uri, sourceConf.trustCertCollection, sourceConf.clientCertChain, sourceConf.clientKey, retryPolicy);
         }
       }
       case INMEMORY: {
@@ -1,32 +1,73 @@
 package org.iota.compass;
 
 import com.beust.jcommander.JCommander;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Context;
 import io.grpc.Server;
+import io.grpc.Status;
 import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslProvider;
 import org.iota.compass.conf.SignatureSourceServerConfiguration;
+import org.iota.compass.crypto.ISS;
+import org.iota.compass.crypto.TritBuffer;
+import org.iota.compass.crypto.TryteCodec;
 import org.iota.compass.proto.*;
+import org.iota.jota.pow.JCurl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SignatureSourceServer {
   private static final Logger log = LoggerFactory.getLogger(SignatureSourceServer.class);
 
   private final SignatureSourceServerConfiguration config;
   private final SignatureSource signatureSource;
+  private final ThreadPoolExecutor signingWorkers;
+  private final ThreadPoolExecutor addressWorkers;
 
   private Server server;
 
   public SignatureSourceServer(SignatureSourceServerConfiguration config) {
     this.config = config;
     this.signatureSource = new InMemorySignatureSource(config.sigMode, config.seed, config.security);
+
+    // Signing and address calculation get their own threads, so a bulk GetAddresses for a new tree can never hold
+    // up the coordinator's next GetSignature.
+    int signingThreads = Math.max(1, config.signingThreads);
+    int addressThreads = config.addressThreads != null
+        ? Math.max(1, config.addressThreads)
+        : Math.max(1, Runtime.getRuntime().availableProcessors() - signingThreads);
+    this.signingWorkers = workers("SignatureSourceServer-signing", signingThreads,
+        Math.max(1, config.maxQueuedSignatures));
+    // Every admitted stream keeps at most one batch per address thread in flight
+    this.addressWorkers = workers("SignatureSourceServer-address", addressThreads,
+        Math.max(1, config.maxQueuedAddresses) + Math.max(1, config.maxAddressStreams) * addressThreads);
+  }
+
+  private static ThreadPoolExecutor workers(String name, int threads, int queueDepth) {
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<>(queueDepth), r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    });
+    workers.allowCoreThreadTimeOut(true);
+    return workers;
   }
 
   public static void main(String[] args) throws IOException, InterruptedException {
@@ -45,7 +86,10 @@ public class SignatureSourceServer {
   public void start() throws IOException {
     NettyServerBuilder builder =
         NettyServerBuilder.forPort(config.port)
-            .addService(new SignatureSourceImpl(signatureSource));
+            // Handlers only validate and enqueue, all real work runs on the signing and address workers
+            .directExecutor()
+            .addService(new SignatureSourceImpl(signatureSource, signingWorkers, addressWorkers,
+                Math.max(1, config.maxQueuedAddresses), Math.max(1, config.maxAddressStreams)));
 
     if (!config.plaintext) {
       if (config.certChain == null || config.certChain.isEmpty()) {
@@ -70,7 +114,8 @@ public class SignatureSourceServer {
     server = builder.build();
     server.start();
 
-    log.info("Server started, listening on " + config.port);
+    log.info("Server started, listening on {} with {} signing and {} address threads", config.port,
+        signingWorkers.getMaximumPoolSize(), addressWorkers.getMaximumPoolSize());
 
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       System.err.println("*** shutting down gRPC server since JVM is shutting down");
@@ -83,6 +128,8 @@ public class SignatureSourceServer {
     if (server != null) {
       server.shutdown();
     }
+    signingWorkers.shutdown();
+    addressWorkers.shutdown();
   }
 
   public void blockUntilShutdown() throws InterruptedException {
@@ -93,16 +140,32 @@ public class SignatureSourceServer {
 
 
   static class SignatureSourceImpl extends SignatureSourceGrpc.SignatureSourceImplBase {
+    /**
+     * Number of consecutive addresses calculated by one task and sent in one message.
+     */
+    private static final int ADDRESS_BATCH_SIZE = 256;
+
     private final SignatureSource signatureSource;
+    private final ThreadPoolExecutor signingWorkers;
+    private final ThreadPoolExecutor addressWorkers;
+    private final int maxQueuedAddresses;
+    private final int maxAddressStreams;
+    private final AtomicInteger queuedAddresses = new AtomicInteger();
+    private final AtomicInteger activeAddressStreams = new AtomicInteger();
 
-    public SignatureSourceImpl(SignatureSource signatureSource) {
+    public SignatureSourceImpl(SignatureSource signatureSource, ThreadPoolExecutor signingWorkers,
+                               ThreadPoolExecutor addressWorkers, int maxQueuedAddresses, int maxAddressStreams) {
       super();
       this.signatureSource = signatureSource;
+      this.signingWorkers = signingWorkers;
+      this.addressWorkers = addressWorkers;
+      this.maxQueuedAddresses = maxQueuedAddresses;
+      this.maxAddressStreams = maxAddressStreams;
     }
 
     @Override
     public void getSecurity(GetSecurityRequest request, StreamObserver<GetSecurityResponse> responseObserver) {
-      log.info("Responding to getSecurity");
+      log.debug("Responding to getSecurity");
       responseObserver.onNext(GetSecurityResponse.newBuilder()
           .setSecurity(signatureSource.getSecurity())
           .build());
@@ -111,7 +174,7 @@ public class SignatureSourceServer {
 
     @Override
     public void getSignatureMode(GetSignatureModeRequest request, StreamObserver<GetSignatureModeResponse> responseObserver) {
-      log.info("Responding to getSignatureMode");
+      log.debug("Responding to getSignatureMode");
       SignatureMode mode;
 
       switch (signatureSource.getSignatureMode()) {
@@ -136,22 +199,291 @@ public class SignatureSourceServer {
 
     @Override
     public void getSignature(GetSignatureRequest request, StreamObserver<GetSignatureResponse> responseObserver) {
-      log.info("Responding to getSignature for index: " + request.getIndex() + " and hash: " + request.getHash());
+      final int[] hash;
+      try {
+        if (request.getHashTrits().isEmpty()) {
+          hash = TryteCodec.trits(request.getHash());
+        } else {
+          hash = new int[JCurl.HASH_LENGTH];
+          TritBuffer.unpack(request.getHashTrits().toByteArray(), hash, 0, hash.length);
+        }
+      } catch (IllegalArgumentException e) {
+        responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        return;
+      }
 
-      responseObserver.onNext(GetSignatureResponse.newBuilder()
-          .setSignature(signatureSource.getSignature(request.getIndex(), request.getHash()))
-          .build());
-      responseObserver.onCompleted();
+      final Context context = Context.current();
+      try {
+        signingWorkers.execute(() -> {
+          if (context.isCancelled()) {
+            log.info("Skipping getSignature for index {} that was cancelled while queued", request.getIndex());
+            return;
+          }
+
+          try {
+            int[] signature = signatureSource.getSignatureTrits(request.getIndex(), hash);
+            GetSignatureResponse.Builder response = GetSignatureResponse.newBuilder();
+            if (request.getEncoding() == TritEncoding.TRIT_ENCODING_PACKED) {
+              for (int offset = 0; offset < signature.length; offset += ISS.FRAGMENT_LENGTH) {
+                response.addSignatureFragmentTrits(packed(signature, offset, ISS.FRAGMENT_LENGTH));
+              }
+            } else {
+              response.setSignature(TryteCodec.trytes(signature));
+            }
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+          } catch (RuntimeException e) {
+            log.error("Failed to sign index " + request.getIndex(), e);
+            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        log.warn("Rejecting getSignature for index {}, signing queue is full", request.getIndex());
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+            .withDescription("Signing queue is full")
+            .asRuntimeException());
+        return;
+      }
+
+      if (log.isDebugEnabled()) {
+        log.debug("Queued getSignature for index {} and hash {}, queue depth: {}", request.getIndex(),
+            TryteCodec.trytes(hash), signingWorkers.getQueue().size());
+      }
     }
 
     @Override
     public void getAddress(GetAddressRequest request, StreamObserver<GetAddressResponse> responseObserver) {
-      log.info("Responding to getAddress for index: " + request.getIndex());
+      if (queuedAddresses.incrementAndGet() > maxQueuedAddresses) {
+        queuedAddresses.decrementAndGet();
+        log.warn("Rejecting getAddress for index {}, address queue is full", request.getIndex());
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+            .withDescription("Address queue is full")
+            .asRuntimeException());
+        return;
+      }
 
-      responseObserver.onNext(GetAddressResponse.newBuilder()
-          .setAddress(signatureSource.getAddress(request.getIndex()))
-          .build());
-      responseObserver.onCompleted();
+      final Context context = Context.current();
+      try {
+        addressWorkers.execute(() -> {
+          try {
+            if (context.isCancelled()) {
+              log.debug("Skipping getAddress for index {} that was cancelled while queued", request.getIndex());
+              return;
+            }
+
+            GetAddressResponse.Builder response = GetAddressResponse.newBuilder();
+            if (request.getEncoding() == TritEncoding.TRIT_ENCODING_PACKED) {
+              signatureSource.getAddressTrits(request.getIndex(), 1,
+                  (address, index) -> response.setAddressTrits(packed(address, 0, JCurl.HASH_LENGTH)));
+            } else {
+              response.setAddress(signatureSource.getAddress(request.getIndex()));
+            }
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          } catch (RuntimeException e) {
+            log.error("Failed to calculate address " + request.getIndex(), e);
+            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+          } finally {
+            queuedAddresses.decrementAndGet();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Only happens once the server is shutting down, the queue has room for every admitted call
+        queuedAddresses.decrementAndGet();
+        responseObserver.onError(Status.UNAVAILABLE
+            .withDescription("Address workers are shut down")
+            .asRuntimeException());
+        return;
+      }
+
+      log.debug("Queued getAddress for index {}, queue depth: {}", request.getIndex(), addressWorkers.getQueue().size());
+    }
+
+    /**
+     * @return the given trits packed for the wire, without copying them again
+     */
+    private static ByteString packed(int[] trits, int offset, int length) {
+      return UnsafeByteOperations.unsafeWrap(TritBuffer.pack(trits, offset, length));
+    }
+
+    @Override
+    public void getAddresses(GetAddressesRequest request, StreamObserver<GetAddressesResponse> responseObserver) {
+      log.debug("Responding to getAddresses for {} addresses from index {}", request.getCount(), request.getFrom());
+
+      if (request.getFrom() < 0 || request.getCount() < 0 || request.getFrom() + request.getCount() < 0) {
+        responseObserver.onError(Status.INVALID_ARGUMENT
+            .withDescription("Invalid address range: " + request.getFrom() + " + " + request.getCount())
+            .asRuntimeException());
+        return;
+      }
+
+      if (activeAddressStreams.incrementAndGet() > maxAddressStreams) {
+        activeAddressStreams.decrementAndGet();
+        log.warn("Rejecting getAddresses from index {}, {} streams are already running", request.getFrom(),
+            maxAddressStreams);
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+            .withDescription("Too many concurrent address streams")
+            .asRuntimeException());
+        return;
+      }
+
+      new AddressStream(request.getFrom(), request.getCount(), request.getEncoding() == TritEncoding.TRIT_ENCODING_PACKED,
+          (ServerCallStreamObserver<GetAddressesResponse>) responseObserver).start();
+    }
+
+    /**
+     * Calculates the batches of a GetAddresses call on the address workers and sends them in order. Only as many
+     * batches as there are workers are calculated ahead of the client, so a slow client does not buffer the whole
+     * range in memory. The stream holds one of the {@code maxAddressStreams} slots until it is completed, failed or
+     * cancelled.
+     */
+    private class AddressStream {
+      private final long from;
+      private final long batches;
+      private final long end;
+      private final boolean packed;
+      private final ServerCallStreamObserver<GetAddressesResponse> observer;
+      private final Map<Long, GetAddressesResponse> calculated = new HashMap<>();
+
+      private final AtomicInteger drainRequests = new AtomicInteger();
+
+      // Only touched by the thread that is draining
+      private long nextToCalculate = 0;
+      private long nextToSend = 0;
+
+      private boolean done = false;
+      private Status failure = null;
+
+      AddressStream(long from, long count, boolean packed, ServerCallStreamObserver<GetAddressesResponse> observer) {
+        this.from = from;
+        this.end = from + count;
+        this.packed = packed;
+        this.batches = (count + ADDRESS_BATCH_SIZE - 1) / ADDRESS_BATCH_SIZE;
+        this.observer = observer;
+      }
+
+      void start() {
+        observer.setOnCancelHandler(this::finish);
+        observer.setOnReadyHandler(this::drain);
+        drain();
+      }
+
+      private void calculate(long batch) {
+        synchronized (this) {
+          if (done) {
+            return;
+          }
+        }
+
+        try {
+          long batchFrom = from + batch * ADDRESS_BATCH_SIZE;
+          GetAddressesResponse.Builder response = GetAddressesResponse.newBuilder().setFrom(batchFrom);
+          long count = Math.min(ADDRESS_BATCH_SIZE, end - batchFrom);
+          if (packed) {
+            signatureSource.getAddressTrits(batchFrom, count,
+                (address, index) -> response.addAddressTrits(packed(address, 0, JCurl.HASH_LENGTH)));
+          } else {
+            signatureSource.getAddresses(batchFrom, count, (address, index) -> response.addAddresses(address));
+          }
+          synchronized (this) {
+            calculated.put(batch, response.build());
+          }
+          drain();
+        } catch (RuntimeException e) {
+          log.error("Failed to calculate addresses.", e);
+          fail(Status.INTERNAL.withDescription(e.getMessage()).withCause(e));
+        }
+      }
+
+      private void fail(Status status) {
+        synchronized (this) {
+          if (failure == null) {
+            failure = status;
+          }
+        }
+        drain();
+      }
+
+      /**
+       * @return whether this call ended the stream, in which case the caller is responsible for closing the observer
+       */
+      private synchronized boolean finish() {
+        if (done) {
+          return false;
+        }
+        done = true;
+        activeAddressStreams.decrementAndGet();
+        return true;
+      }
+
+      /**
+       * Runs {@link #drainOnce()} until no more drains were requested meanwhile. Only one thread drains at a time, and
+       * it talks to the observer without holding the stream's lock: the transport may call the ready handler while it
+       * holds its own lock, so taking ours there as well could deadlock against a worker that is sending.
+       */
+      private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+          return;
+        }
+        do {
+          drainOnce();
+        } while (drainRequests.decrementAndGet() != 0);
+      }
+
+      /**
+       * Sends the calculated batches that are next in order while the client is ready, and keeps the workers busy
+       * with the following ones.
+       */
+      private void drainOnce() {
+        Status failed;
+        synchronized (this) {
+          if (done) {
+            return;
+          }
+          failed = failure;
+        }
+        if (failed != null) {
+          if (finish()) {
+            observer.onError(failed.asRuntimeException());
+          }
+          return;
+        }
+
+        while (nextToSend < batches && observer.isReady()) {
+          GetAddressesResponse response;
+          synchronized (this) {
+            response = calculated.remove(nextToSend);
+          }
+          if (response == null) {
+            break;
+          }
+          nextToSend++;
+          observer.onNext(response);
+        }
+        if (nextToSend == batches) {
+          if (finish()) {
+            observer.onCompleted();
+          }
+          return;
+        }
+
+        while (nextToCalculate < batches && nextToCalculate - nextToSend < addressWorkers.getMaximumPoolSize()) {
+          final long batch = nextToCalculate++;
+          try {
+            addressWorkers.execute(() -> calculate(batch));
+          } catch (RejectedExecutionException e) {
+            // Only happens once the server is shutting down
+            if (finish()) {
+              observer.onError(Status.UNAVAILABLE.withDescription("Address workers are shut down").asRuntimeException());
+            }
+            return;
+          }
+        }
+      }
     }
   }
 
@@ -0,0 +1,275 @@
+package org.iota.compass;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.iota.compass.crypto.TryteCodec;
+import org.iota.compass.proto.*;
+import org.iota.jota.pow.SpongeFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the signature source service on an in-process server and talks to it through a {@link RemoteSignatureSource}.
+ */
+@RunWith(JUnit4.class)
+public class SignatureSourceServerTest {
+  private static final RemoteSignatureSource.RetryPolicy RETRY_POLICY =
+      new RemoteSignatureSource.RetryPolicy(10_000, 5, 20, 100);
+
+  @Rule
+  public final InProcessGrpc grpc = new InProcessGrpc();
+
+  private final SignatureSource signatureSource =
+      new InMemorySignatureSource(SpongeFactory.Mode.CURLP27, TestUtil.nextSeed(), 1);
+  private final CountDownLatch addressesReleased = new CountDownLatch(1);
+  private final CountDownLatch signaturesReleased = new CountDownLatch(1);
+  private final SignatureSource blockingSource = new SignatureSource() {
+    @Override
+    public String getSignature(long index, String bundleHash) {
+      await(signaturesReleased);
+      return signatureSource.getSignature(index, bundleHash);
+    }
+
+    @Override
+    public int getSecurity() {
+      return signatureSource.getSecurity();
+    }
+
+    @Override
+    public SpongeFactory.Mode getSignatureMode() {
+      return signatureSource.getSignatureMode();
+    }
+
+    @Override
+    public String getAddress(long index) {
+      await(addressesReleased);
+      return signatureSource.getAddress(index);
+    }
+  };
+
+  private final List<ThreadPoolExecutor> workers = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    addressesReleased.countDown();
+    signaturesReleased.countDown();
+    workers.forEach(ThreadPoolExecutor::shutdownNow);
+  }
+
+  private ThreadPoolExecutor workers(int threads, int queueDepth) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queueDepth));
+    workers.add(executor);
+    return executor;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      if (!latch.await(10, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Never released");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private RemoteSignatureSource client(String name) {
+    return grpc.client(new RemoteSignatureSource(InProcessChannelBuilder.forName(name), RETRY_POLICY),
+        RemoteSignatureSource::shutdown);
+  }
+
+  /**
+   * @return a stub that does not retry, so the calls see the server's status as is
+   */
+  private SignatureSourceGrpc.SignatureSourceFutureStub stub(String name) {
+    return SignatureSourceGrpc.newFutureStub(grpc.channel(name));
+  }
+
+  private static Status.Code statusOf(ListenableFuture<?> call) throws InterruptedException, TimeoutException {
+    try {
+      call.get(10, TimeUnit.SECONDS);
+      return Status.Code.OK;
+    } catch (ExecutionException e) {
+      return Status.fromThrowable(e.getCause()).getCode();
+    }
+  }
+
+  private List<String> streamAddresses(SignatureSource source, long from, int count) {
+    List<String> addresses = new ArrayList<>();
+    source.getAddressTrits(from, count, (address, index) -> {
+      Assert.assertEquals(from + addresses.size(), index);
+      addresses.add(TryteCodec.trytes(address));
+    });
+    return addresses;
+  }
+
+  @Test
+  public void streamsSameAddressesAsGetAddress() throws IOException {
+    RemoteSignatureSource remote = client(grpc.start(new SignatureSourceServer.SignatureSourceImpl(signatureSource,
+        workers(1, 16), workers(4, 64), 64, 2)));
+
+    // Several partial batches calculated by four workers, so they complete out of order
+    final long from = 5;
+    final int count = 2 * 256 + 37;
+    List<String> streamed = streamAddresses(remote, from, count);
+
+    Assert.assertEquals(count, streamed.size());
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(remote.getAddress(from + i), streamed.get(i));
+    }
+    Assert.assertEquals(signatureSource.getAddress(from + count - 1), streamed.get(count - 1));
+  }
+
+  @Test
+  public void cancelledStreamReleasesItsSlot() throws IOException {
+    RemoteSignatureSource remote = client(grpc.start(new SignatureSourceServer.SignatureSourceImpl(signatureSource,
+        workers(1, 16), workers(2, 64), 64, 1)));
+
+    AtomicInteger received = new AtomicInteger();
+    try {
+      remote.getAddressTrits(0, 10 * 256, (address, index) -> {
+        if (received.incrementAndGet() == 300) {
+          throw new IllegalStateException("Enough addresses");
+        }
+      });
+      Assert.fail("The consumer should have stopped the stream");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Enough addresses", e.getMessage());
+    }
+
+    // Only one stream is admitted at a time, so this fails if the cancelled stream kept its slot
+    List<String> streamed = streamAddresses(remote, 0, 300);
+    Assert.assertEquals(signatureSource.getAddress(299), streamed.get(299));
+  }
+
+  @Test
+  public void failsStreamsWithUnavailableOnceShutDown() throws IOException {
+    ThreadPoolExecutor addressWorkers = workers(2, 64);
+    RemoteSignatureSource remote = client(grpc.start(new SignatureSourceServer.SignatureSourceImpl(signatureSource,
+        workers(1, 16), addressWorkers, 64, 1)));
+    addressWorkers.shutdown();
+
+    try {
+      remote.getAddressTrits(0, 10, (address, index) -> Assert.fail("No address should be calculated"));
+      Assert.fail("The stream should have failed");
+    } catch (StatusRuntimeException e) {
+      // Every retry is admitted again, so a failed stream must not keep its slot either
+      Assert.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void failsGetAddressWithUnavailableOnceShutDown() throws Exception {
+    ThreadPoolExecutor addressWorkers = workers(1, 64);
+    SignatureSourceGrpc.SignatureSourceFutureStub stub = stub(grpc.start(new SignatureSourceServer.SignatureSourceImpl(
+        signatureSource, workers(1, 16), addressWorkers, 1, 1)));
+    addressWorkers.shutdown();
+
+    Assert.assertEquals(Status.Code.UNAVAILABLE, statusOf(stub.getAddress(GetAddressRequest.newBuilder().build())));
+    // The rejected call must not keep its place in the address queue, which only has room for one
+    Assert.assertEquals(Status.Code.UNAVAILABLE, statusOf(stub.getAddress(GetAddressRequest.newBuilder().build())));
+  }
+
+  @Test
+  public void saturatedAddressLaneDoesNotDelaySigning() throws Exception {
+    String name = grpc.start(new SignatureSourceServer.SignatureSourceImpl(blockingSource, workers(1, 16),
+        workers(1, 64), 8, 1));
+    ManagedChannel channel = grpc.channel(name);
+    SignatureSourceGrpc.SignatureSourceFutureStub stub = SignatureSourceGrpc.newFutureStub(channel);
+    signaturesReleased.countDown();
+
+    // Fill the address queue and the only stream slot with calls that cannot finish yet
+    List<ListenableFuture<GetAddressResponse>> addresses = new ArrayList<>();
+    for (int index = 0; index < 8; index++) {
+      addresses.add(stub.getAddress(GetAddressRequest.newBuilder().setIndex(index).build()));
+    }
+    CountDownLatch streamed = new CountDownLatch(1);
+    SignatureSourceGrpc.newStub(channel).getAddresses(GetAddressesRequest.newBuilder().setCount(10).build(),
+        new StreamObserver<GetAddressesResponse>() {
+          @Override
+          public void onNext(GetAddressesResponse value) {
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            streamed.countDown();
+          }
+
+          @Override
+          public void onCompleted() {
+            streamed.countDown();
+          }
+        });
+
+    String hash = TestUtil.nextSeed();
+    Assert.assertEquals(signatureSource.getSignature(3, hash),
+        client(name).getSignatureAsync(3, hash).get(10, TimeUnit.SECONDS));
+    for (ListenableFuture<GetAddressResponse> address : addresses) {
+      Assert.assertFalse("The address lane should still be blocked", address.isDone());
+    }
+
+    addressesReleased.countDown();
+    for (int index = 0; index < addresses.size(); index++) {
+      Assert.assertEquals(signatureSource.getAddress(index), addresses.get(index).get(10, TimeUnit.SECONDS).getAddress());
+    }
+    Assert.assertTrue(streamed.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void rejectsCallsOverTheLimitsWithResourceExhausted() throws Exception {
+    ManagedChannel channel = grpc.channel(grpc.start(new SignatureSourceServer.SignatureSourceImpl(
+        blockingSource, workers(1, 1), workers(1, 64), 2, 1)));
+    SignatureSourceGrpc.SignatureSourceFutureStub stub = SignatureSourceGrpc.newFutureStub(channel);
+
+    // One signature is calculated and one is queued, the signing queue has no room for a third
+    GetSignatureRequest sign = GetSignatureRequest.newBuilder().setHash(TestUtil.nextSeed()).build();
+    ListenableFuture<GetSignatureResponse> signing = stub.getSignature(sign);
+    ListenableFuture<GetSignatureResponse> queued = stub.getSignature(sign);
+    Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED, statusOf(stub.getSignature(sign)));
+
+    ListenableFuture<GetAddressResponse> first = stub.getAddress(GetAddressRequest.newBuilder().build());
+    ListenableFuture<GetAddressResponse> second = stub.getAddress(GetAddressRequest.newBuilder().build());
+    Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED,
+        statusOf(stub.getAddress(GetAddressRequest.newBuilder().build())));
+
+    GetAddressesRequest stream = GetAddressesRequest.newBuilder().setCount(10).build();
+    Iterator<GetAddressesResponse> running =
+        SignatureSourceGrpc.newBlockingStub(channel).getAddresses(stream);
+    try {
+      SignatureSourceGrpc.newBlockingStub(channel).getAddresses(stream).hasNext();
+      Assert.fail("A second stream should not be admitted");
+    } catch (StatusRuntimeException e) {
+      Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+    }
+
+    // Every admitted call still completes
+    signaturesReleased.countDown();
+    addressesReleased.countDown();
+    Assert.assertEquals(Status.Code.OK, statusOf(signing));
+    Assert.assertEquals(Status.Code.OK, statusOf(queued));
+    Assert.assertEquals(Status.Code.OK, statusOf(first));
+    Assert.assertEquals(Status.Code.OK, statusOf(second));
+    Assert.assertEquals(10, running.next().getAddressesCount());
+  }
+}
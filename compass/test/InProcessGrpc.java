@@ -0,0 +1,83 @@
+/*
+ * This file is part of TestnetCOO.
+ *
+ * Copyright (C) 2018 IOTA Stiftung
+ * TestnetCOO is Copyright (C) 2017-2018 IOTA Stiftung
+ *
+ * TestnetCOO is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * TestnetCOO is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with TestnetCOO.  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     IOTA Stiftung <contact@iota.org>
+ *     https://www.iota.org/
+ */
+
+package org.iota.compass;
+
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs gRPC services on in-process servers for the duration of a test, and shuts down every server, channel and
+ * client that was created through it afterwards.
+ */
+public class InProcessGrpc extends ExternalResource {
+  private final List<Server> servers = new ArrayList<>();
+  private final List<ManagedChannel> channels = new ArrayList<>();
+  private final List<Runnable> clientShutdowns = new ArrayList<>();
+
+  @Override
+  protected void after() {
+    clientShutdowns.forEach(Runnable::run);
+    channels.forEach(ManagedChannel::shutdownNow);
+    servers.forEach(Server::shutdownNow);
+  }
+
+  /**
+   * @return the name of the new server, which channels connect to with {@link InProcessChannelBuilder#forName}
+   */
+  public String start(BindableService service) throws IOException {
+    String name = InProcessServerBuilder.generateName();
+    servers.add(InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start());
+    return name;
+  }
+
+  /**
+   * @return a plain channel to the named server, for calls that should see the server's status as is
+   */
+  public ManagedChannel channel(String name) {
+    ManagedChannel channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    channels.add(channel);
+    return channel;
+  }
+
+  /**
+   * Shuts {@code client} down with {@code shutdown} after the test.
+   *
+   * @return {@code client}
+   */
+  public <T> T client(T client, Consumer<? super T> shutdown) {
+    clientShutdowns.add(() -> shutdown.accept(client));
+    return client;
+  }
+}